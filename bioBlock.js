@@ -8,8 +8,12 @@ module.exports = class BioBlock extends Block{
         this.c = new Calling();
     }
 
+    proofThreshold() {
+        return this.c.baseScore + 100;
+    }
+
     hasValidProof() {
         let score = this.c.alignScore(this.proof);
-        return score >= this.c.baseScore + 100;
+        return score >= this.proofThreshold();
     }
 };
\ No newline at end of file
@@ -9,15 +9,14 @@ module.exports = class BioMiner extends Miner{
     }
 
     findProof(oneAndDone=false) {
-        for(let width of this.c.widths){
-            this.currentBlock.proof = this.c.align(width);
-            if (this.currentBlock.hasValidProof()) {
-                this.log(`found proof for block ${this.currentBlock.chainLength}: ${this.currentBlock.proof}`);
-                this.announceProof();
-                this.receiveBlock(this.currentBlock);
-                this.startNewSearch();
-                break;
-            }
+        // Like walking the widths in order, the sweep stops at the first
+        // width whose proof is good enough.
+        this.currentBlock.proof = this.c.sweep(this.currentBlock.proofThreshold());
+        if (this.currentBlock.hasValidProof()) {
+            this.log(`found proof for block ${this.currentBlock.chainLength}: ${this.currentBlock.proof}`);
+            this.announceProof();
+            this.receiveBlock(this.currentBlock);
+            this.startNewSearch();
         }
         // If we are testing, don't continue the search.
         if (!oneAndDone) {
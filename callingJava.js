@@ -1,30 +1,102 @@
-const spawn = require("child_process").spawnSync;
+const { spawn, spawnSync } = require("child_process");
+const fs = require("fs");
+const os = require("os");
+const path = require("path");
+
+// One `MSG serve` process answers every request, so a proof check costs a
+// line round trip instead of a JVM startup. Node can't block on a child's
+// pipes, so the server's stdin & stdout are named pipes, which fs.readSync
+// can block on.
+class MSGServer {
+    constructor() {
+        this.dir = fs.mkdtempSync(path.join(os.tmpdir(), "msg-serve-"));
+        // Every source, so no stale class file under msg/ is picked up.
+        let classes = path.join(this.dir, "classes");
+        let sources = fs.readdirSync("msg").filter(f => f.endsWith(".java")).map(f => path.join("msg", f));
+        let javac = spawnSync("javac", ["-d", classes, ...sources], { stdio: "inherit" });
+        if (javac.status !== 0) {
+            fs.rmSync(this.dir, { recursive: true, force: true });
+            throw new Error("Can't compile msg/");
+        }
+        let requests = path.join(this.dir, "requests");
+        let replies = path.join(this.dir, "replies");
+        spawnSync("mkfifo", [requests, replies]);
+        // The shell opens requests, then replies; each open waits for ours.
+        this.child = spawn("sh", ["-c", 'exec java -cp "$0" msg.MSG serve < "$1" > "$2"', classes, requests, replies],
+            { stdio: ["ignore", "ignore", "inherit"] });
+        this.child.unref();
+        this.requestFd = fs.openSync(requests, "w");
+        this.replyFd = fs.openSync(replies, "r");
+        this.pending = "";
+        process.on("exit", () => this.close());
+    }
+
+    // Sends one request line and returns its reply line.
+    request(line) {
+        fs.writeSync(this.requestFd, line + "\n");
+        let buffer = Buffer.alloc(64 * 1024);
+        let end;
+        while ((end = this.pending.indexOf("\n")) < 0) {
+            let n = fs.readSync(this.replyFd, buffer, 0, buffer.length, null);
+            if (n === 0)
+                throw new Error("MSG serve exited");
+            this.pending += buffer.toString("utf8", 0, n);
+        }
+        let reply = this.pending.slice(0, end);
+        this.pending = this.pending.slice(end + 1);
+        return reply;
+    }
+
+    // Closing requests is EOF for the server, which then exits.
+    close() {
+        if (this.requestFd === undefined)
+            return;
+        fs.closeSync(this.requestFd);
+        fs.closeSync(this.replyFd);
+        this.requestFd = undefined;
+        fs.rmSync(this.dir, { recursive: true, force: true });
+    }
+}
+
+let server;
+
+function getServer() {
+    if (!server)
+        server = new MSGServer();
+    return server;
+}
+
 module.exports = class CallingJava {
     constructor() {
-        spawn("javac", ["msg/MSG.java"]);
-        let ls = spawn("java", ["msg/MSG", "base"]);
+        this.server = getServer();
         // eslint-disable-next-line radix
-        this.baseScore = parseInt(ls.stdout);
+        this.baseScore = parseInt(this.server.request("base"));
         this.getWidth();
     }
 
+    // A proof that isn't a single line can't be a request, and isn't an
+    // alignment either.
     alignScore(alignment) {
-        let ls = spawn("java", ["msg/MSG", "score", alignment]);
+        if (/[\r\n]/.test(alignment))
+            return NaN;
         // eslint-disable-next-line radix
-        return parseInt(ls.stdout);
+        return parseInt(this.server.request("score " + alignment));
     }
 
     align(width) {
-        let ls = spawn("java", ["msg/MSG", "align", width]);
-        // eslint-disable-next-line radix
-        return ls.stdout.toString();
+        return this.server.request("align " + width);
+    }
+
+    // Runs the widths in the server's JVM and returns the best alignment.
+    // No more widths start once one's alignment scores at least targetScore.
+    sweep(targetScore) {
+        return this.server.request("sweep " + targetScore);
     }
 
     getWidth() {
-        let ls = spawn("java", ["msg/MSG", "widths"]);
-        let widthString = ls.stdout.toString();
+        let widthString = this.server.request("widths");
         widthString = widthString.replace('[', "");
         widthString = widthString.replace(']', "");
         this.widths = widthString.split`,`.map(x => +x);
     }
-};
\ No newline at end of file
+};
@@ -0,0 +1,66 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+
+//
+// The datasets that benchmarks are parameterized over: 1 Clustal alignment
+// from each family under data/. A benchmark's dataset param can also be any
+// .clw path relative to data/, e.g. -p dataset=GagPol/pol_08.clw. Paths are
+// relative to the working directory, so run benchmarks from the directory
+// that contains data/.
+//
+
+
+class BenchmarkDatasets
+{
+    final static File               DATA_DIRF   = new File("data");
+    final static long               SEED        = 20_240_601L;
+
+    private final static String[][] FAMILIES    =
+    {
+        { "Balibase",   "Balibase_bb3_release/BB11001.clw" },
+        { "GagPol",     "GagPol/gag_08.clw"                },
+        { "PDGH",       "PDGH/first_7.clw"                 },
+        { "Random",     "Random/Uniform.clw"               }
+    };
+
+
+    static SequenceDataset load(String dataset) throws IOException
+    {
+        return ClustalParser.parseFileToGapped(clustalFile(dataset));
+    }
+
+
+    static File clustalFile(String dataset) throws IOException
+    {
+        String path = dataset;
+        for (String[] family: FAMILIES)
+            if (family[0].equals(dataset))
+                path = family[1];
+        File file = new File(DATA_DIRF, path);
+        if (!file.isFile())
+            throw new FileNotFoundException("No dataset " + dataset + " (" + file + ")");
+        return file;
+    }
+
+
+    // The .fasta that data/ ships next to each .clw.
+    static File fastaFile(String dataset) throws IOException
+    {
+        File clw = clustalFile(dataset);
+        String name = clw.getName();
+        File file = new File(clw.getParentFile(), name.substring(0, name.length()-4) + ".fasta");
+        if (!file.isFile())
+            throw new FileNotFoundException("No FASTA for " + dataset + " (" + file + ")");
+        return file;
+    }
+
+
+    // Genes per chromosome when ungapped is aligned to alignmentWidth.
+    static int nGaps(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        return alignmentWidth * ungapped.size()  -  ungapped.nCharsOverall();
+    }
+}
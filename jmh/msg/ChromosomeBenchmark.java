@@ -0,0 +1,72 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// Decoding and scoring 1 random chromosome at the dataset's Clustal width.
+// evaluate() is timed on a chromosome that's re-randomized before every call,
+// so it's never a FitnessCache hit and has no parent to be rescored from.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChromosomeBenchmark
+{
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    private UngappedSequenceDataset ungapped;
+    private int                     width;
+    private Chromosome              chromo;
+
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        SequenceDataset gapped = BenchmarkDatasets.load(dataset);
+        ungapped = gapped.removeGaps();
+        width = gapped.widthOfWidestSequence();
+        chromo = new Chromosome(ungapped, width);
+        chromo.randomize(new SplittableRandom(BenchmarkDatasets.SEED));
+    }
+
+
+    @State(Scope.Thread)
+    public static class Unscored
+    {
+        private SplittableRandom    random      = new SplittableRandom(BenchmarkDatasets.SEED);
+        private Chromosome          chromo;
+
+        @Setup(Level.Invocation)
+        public void randomize(ChromosomeBenchmark bench)
+        {
+            if (chromo == null)
+                chromo = new Chromosome(bench.ungapped, bench.width);
+            chromo.randomize(random);
+        }
+    }
+
+
+    @Benchmark
+    public char[][] toCharArrays()
+    {
+        return chromo.toCharArrays(ungapped, width);
+    }
+
+
+    @Benchmark
+    public int evaluate(Unscored unscored)
+    {
+        unscored.chromo.evaluate(ungapped, width);
+        return unscored.chromo.score;
+    }
+}
@@ -0,0 +1,72 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// A whole headless G.A. run at the Clustal width, as in MSG.align(), timed
+// once per iteration. The generation counts default to well below MSG's so a
+// run takes seconds; pass e.g. -p nGenerationsTribePhase=750
+// -p nGenerationsCombinedPhase=500 for full-length runs. Tribes breed on
+// MultiTribePanel's shared pool.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GAScoreBenchmark
+{
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    @Param({ "10" })
+    public int                      nTribes;
+
+    @Param({ "100" })
+    public int                      nGenerationsTribePhase;
+
+    @Param({ "100" })
+    public int                      nGenerationsCombinedPhase;
+
+    private SequenceDataset         gapped;
+    private UngappedSequenceDataset ungapped;
+    private int                     clustalScore;
+    private SplittableRandom        random;
+    private MultiTribePanel         multiTribe;
+
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        gapped = BenchmarkDatasets.load(dataset);
+        ungapped = gapped.removeGaps();
+        clustalScore = AlignmentScorer.scoreAlignment(gapped.values());
+        random = new SplittableRandom(BenchmarkDatasets.SEED);
+    }
+
+
+    @Setup(Level.Iteration)
+    public void reset()
+    {
+        FitnessCache.clear();
+        multiTribe = new MultiTribePanel(null, nTribes);
+        multiTribe.setNGenerationsTribePhase(nGenerationsTribePhase);
+        multiTribe.setNGenerationsCombinedPhase(nGenerationsCombinedPhase);
+        multiTribe.reset(ungapped, gapped, clustalScore, gapped.widthOfWidestSequence(),
+                         random.split());
+    }
+
+
+    @Benchmark
+    public int computeGAScore()
+    {
+        return multiTribe.computeGAScore().score;
+    }
+}
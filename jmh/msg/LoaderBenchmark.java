@@ -0,0 +1,50 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// Loading each dataset's sequences, from its Clustal alignment and from the
+// FASTA file next to it, through to residue codes.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmark
+{
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    private File                    clustalFile;
+    private File                    fastaFile;
+
+
+    @Setup(Level.Trial)
+    public void locate() throws IOException
+    {
+        clustalFile = BenchmarkDatasets.clustalFile(dataset);
+        fastaFile = BenchmarkDatasets.fastaFile(dataset);
+    }
+
+
+    @Benchmark
+    public CompactSequenceDataset parseClustal() throws IOException
+    {
+        return ClustalParser.parseFileToGapped(clustalFile).removeGaps().compact();
+    }
+
+
+    @Benchmark
+    public CompactSequenceDataset parseFasta() throws IOException
+    {
+        return FastaParser.parseFile(fastaFile).compact();
+    }
+}
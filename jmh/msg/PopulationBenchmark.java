@@ -0,0 +1,60 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// 1 generation of a tribe-sized population, bred serially. Each iteration
+// starts a new population from the same seed, with the FitnessCache cleared
+// so it doesn't remember the previous iteration's kids.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PopulationBenchmark
+{
+    private final static int        N_CHROMOSOMES       = 100;      // as in MultiTribePanel
+    private final static int        BREEDING_POOL_SIZE  =  50;
+    private final static int        HISTORY_SIZE        = 850;
+
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    private UngappedSequenceDataset ungapped;
+    private int                     width;
+    private Population              population;
+
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        SequenceDataset gapped = BenchmarkDatasets.load(dataset);
+        ungapped = gapped.removeGaps();
+        width = gapped.widthOfWidestSequence();
+    }
+
+
+    @Setup(Level.Iteration)
+    public void newPopulation()
+    {
+        FitnessCache.clear();
+        population = new Population(N_CHROMOSOMES, BREEDING_POOL_SIZE, ungapped, width,
+                                    HISTORY_SIZE, new SplittableRandom(BenchmarkDatasets.SEED));
+    }
+
+
+    @Benchmark
+    public int step1Generation()
+    {
+        population.step1Generation();
+        return population.getFittest().score;
+    }
+}
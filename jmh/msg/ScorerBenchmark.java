@@ -0,0 +1,52 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// AlignmentScorer.scoreAlignment() of each dataset's Clustal alignment, from
+// both input forms.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScorerBenchmark
+{
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    private List<String>            strings;
+    private char[][]                chars;
+
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        strings = new ArrayList<String>(BenchmarkDatasets.load(dataset).values());
+        chars = new char[strings.size()][];
+        for (int i=0; i<chars.length; i++)
+            chars[i] = strings.get(i).toCharArray();
+    }
+
+
+    @Benchmark
+    public int scoreCharArrays()
+    {
+        return AlignmentScorer.scoreAlignment(chars);
+    }
+
+
+    @Benchmark
+    public int scoreStrings()
+    {
+        return AlignmentScorer.scoreAlignment(strings);
+    }
+}
@@ -0,0 +1,55 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+//
+// Narrowing each dataset's Clustal alignment by nColsRemoved columns, as
+// SizeAdjustingChromosome does when a tribe is kickstarted below the
+// Clustal width.
+//
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlenderizerBenchmark
+{
+    @Param({ "Balibase", "GagPol", "PDGH", "Random" })
+    public String                   dataset;
+
+    @Param({ "2" })
+    public int                      nColsRemoved;
+
+    private Collection<String>      seqs;
+    private int                     nColsAfter;
+    private int                     nGapsAfter;
+    private SplittableRandom        random;
+
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        SequenceDataset gapped = BenchmarkDatasets.load(dataset);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        seqs = gapped.values();
+        nColsAfter = gapped.widthOfWidestSequence() - nColsRemoved;
+        nGapsAfter = BenchmarkDatasets.nGaps(ungapped, nColsAfter);
+        if (nGapsAfter < 0)
+            throw new IllegalArgumentException(dataset + " can't lose " + nColsRemoved + " columns");
+        random = new SplittableRandom(BenchmarkDatasets.SEED);
+    }
+
+
+    @Benchmark
+    public int[] slenderize()
+    {
+        return new Slenderizer(seqs, random).slenderize(nColsAfter, nGapsAfter);
+    }
+}
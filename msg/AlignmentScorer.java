@@ -42,6 +42,15 @@ X -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -4
 */
 
     private final static int[][]        BLOSUM_62_MATRIX;
+    private final static int[]          BLOSUM_62_FLAT;         // by flatIndex()
+    private final static int[]          BEST_PAIR_SCORE;        // by residue code
+    private final static int[]          WORST_PAIR_SCORE;       // by residue code
+    private final static int            PROFILE_SCORING_MIN_ROWS = 24;
+    private final static int            COLUMN_CACHE_SIZE = 1 << 16;
+    private final static int            MAX_ROWS_FOR_COLUMN_KEY = 12;   // 5 bits per row
+    private final static float          MAX_DIRTY_FRACTION_FOR_RESCORE = .5f;
+    private final static ScoreCache     COLUMN_CACHE = new ScoreCache(COLUMN_CACHE_SIZE);
+    private final static ThreadLocal<Scratch>   SCRATCH = ThreadLocal.withInitial(Scratch::new);
     private final static String         INDICES = "ARNDCQEGHILKMFPSTWYVBJZX";
     private final static String[]       RAW_ROWS =
     {
@@ -146,106 +155,629 @@ X -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -4
         assert BLOSUM_62_MATRIX['C'-'A']['Q'-'A'] == -3;    // Spot checks
         assert BLOSUM_62_MATRIX['M'-'A']['M'-'A'] == 5;
         assert BLOSUM_62_MATRIX['A'-'A']['P'-'A'] == -1;
+
+        // Flatten to 32x32, indexed by residue code (see ResidueAlignment).
+        // Rows & columns for the gap code are 0, so pairs involving a gap
+        // contribute nothing and the scoring loop needs no gap test.
+        BLOSUM_62_FLAT = new int[32*32];
+        for (char aa='A'; aa<='Z'; aa++)
+        {
+            if (!isAa(aa))
+                continue;
+            for (char aa1='A'; aa1<='Z'; aa1++)
+                if (isAa(aa1))
+                    BLOSUM_62_FLAT[flatIndex(ResidueAlignment.encode(aa), ResidueAlignment.encode(aa1))] =
+                        BLOSUM_62_MATRIX[aa-'A'][aa1-'A'];
+        }
+
+        // Best & worst partner score for each amino acid, for bounding. By code.
+        BEST_PAIR_SCORE = new int[32];
+        WORST_PAIR_SCORE = new int[32];
+        for (char aa='A'; aa<='Z'; aa++)
+        {
+            if (!isAa(aa))
+                continue;
+            int best = Integer.MIN_VALUE;
+            int worst = Integer.MAX_VALUE;
+            for (char aa1='A'; aa1<='Z'; aa1++)
+            {
+                if (!isAa(aa1))
+                    continue;
+                best = Math.max(best, BLOSUM_62_MATRIX[aa-'A'][aa1-'A']);
+                worst = Math.min(worst, BLOSUM_62_MATRIX[aa-'A'][aa1-'A']);
+            }
+            BEST_PAIR_SCORE[ResidueAlignment.encode(aa)] = best;
+            WORST_PAIR_SCORE[ResidueAlignment.encode(aa)] = worst;
+        }
+    }
+
+
+    private static int flatIndex(int code1, int code2)
+    {
+        return (code1 << 5) | code2;
     }
 
 
+    // Throws IllegalArgumentException if rows are ragged or contain illegal chars.
     static int scoreAlignment(Collection<String> alignment)
     {
-        // Convert input to char[][].
-        char[][] charAlignment = new char[alignment.size()][];
-        int n = 0;
-        for (String s: alignment)
-            charAlignment[n++] = s.toCharArray();
+        return scoreAlignment(ResidueAlignment.fromStrings(alignment));
+    }
+
 
-        // Score.
-        return scoreAlignment(charAlignment);
+    // Throws IllegalArgumentException if rows are ragged or contain illegal chars.
+    static int scoreAlignment(char[][] alignment)
+    {
+        return scoreAlignment(ResidueAlignment.fromChars(alignment));
     }
 
 
-    // More efficient, since scoreAlignment(Collection<String>) converts to
+    // Most efficient, since the other scoreAlignment() overloads convert to
     // this format.
-    static int scoreAlignment(char[][] alignment)
+    static int scoreAlignment(ResidueAlignment alignment)
     {
-        // Collect all-gap columns.
-        int w = alignment[0].length;
-        boolean[] ungapped = new boolean[w];
-        for (int seq=0; seq<alignment.length; seq++)
+        Scratch scratch = SCRATCH.get();
+        int score = 0;
+        for (int col=0; col<alignment.nCols; col++)
+            score += scoreColumn(alignment.codes, col*alignment.nRows, alignment.nRows, scratch.counts);
+        return score + gapPenalties(alignment, scratch);
+    }
+
+
+    // Pair score of each column, without gap penalties. These sum to
+    // scoreAlignment(alignment) minus its gap penalties.
+    static int[] scoreColumns(ResidueAlignment alignment)
+    {
+        int[] counts = SCRATCH.get().counts;
+        int[] ret = new int[alignment.nCols];
+        for (int col=0; col<alignment.nCols; col++)
+            ret[col] = scoreColumn(alignment.codes, col*alignment.nRows, alignment.nRows, counts);
+        return ret;
+    }
+
+
+    // Same as scoreAlignment(ResidueAlignment), but column scores are looked
+    // up in (and added to) a cache shared by all callers. Children in a G.A. run
+    // share most of their columns with their parents, so most lookups hit.
+    static int scoreAlignmentCached(ResidueAlignment alignment)
+    {
+        int nRows = alignment.nRows;
+        if (nRows > MAX_ROWS_FOR_COLUMN_KEY)
+            return scoreAlignment(alignment);
+
+        int score = 0;
+        for (int col=0; col<alignment.nCols; col++)
         {
-            for (int col=0; col<alignment[0].length; col++)
+            long key = columnKey(alignment.codes, col*nRows, nRows);
+            int colScore = COLUMN_CACHE.get(key);
+            if (colScore == ScoreCache.MISS)
             {
-                if (alignment[seq][col] != '-')
+                colScore = scoreColumnPairwise(alignment.codes, col*nRows, nRows);
+                COLUMN_CACHE.put(key, colScore);
+            }
+            score += colScore;
+        }
+        return score + gapPenalties(alignment, SCRATCH.get());
+    }
+
+
+    // Same score as scoreAlignmentCached() of the alignment that a canonical
+    // chromosome decodes to (see Chromosome), computed from the gaps without
+    // building the alignment. Per-row cursors into seqs.residues[] and
+    // gapLocations[] produce 1 column at a time. The gaps of row n are gapLocations[base +
+    // gapStarts[n]] thru gapLocations[base + gapStarts[n+1]-1], sorted and
+    // unique; base is nonzero when the genes are a row of a packed matrix.
+    static int scoreGapping(CompactSequenceDataset seqs, char[] gapLocations, int base, int[] gapStarts,
+                            int nCols)
+    {
+        return scoreGapping(seqs, gapLocations, base, gapStarts, nCols, null, null);
+    }
+
+
+    // Also records each column's pair score in columnScores[] and each row's
+    // gap penalties in rowPenalties[] (if not null), for rescoreGapping().
+    static int scoreGapping(CompactSequenceDataset seqs, char[] gapLocations, int base, int[] gapStarts,
+                            int nCols, int[] columnScores, int[] rowPenalties)
+    {
+        int nRows = seqs.nRows;
+        byte[] residues = seqs.residues;
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(nRows, nCols);
+        int[] nextGap = scratch.nextGap;
+        int[] nextResidue = scratch.nextResidue;
+        byte[] column = scratch.column;
+
+        // Gap penalties.
+        int score = 0;
+        int nMarked = collectMarkedCols(gapLocations, base, gapStarts, nRows, nCols,
+                                        scratch.markedCols);
+        for (int row=0; row<nRows; row++)
+        {
+            int penalty = rowPenalty(gapLocations, base+gapStarts[row], base+gapStarts[row+1],
+                                     scratch.markedCols, nMarked);
+            if (rowPenalties != null)
+                rowPenalties[row] = penalty;
+            score += penalty;
+            nextGap[row] = base + gapStarts[row];
+            nextResidue[row] = seqs.offsets[row];
+        }
+
+        // Column scores.
+        for (int col=0; col<nCols; col++)
+        {
+            for (int row=0; row<nRows; row++)
+            {
+                int gap = nextGap[row];
+                if (gap < base+gapStarts[row+1]  &&  gapLocations[gap] == col)
                 {
-                    ungapped[col] = true;
-                    break;
+                    column[row] = ResidueAlignment.GAP;
+                    nextGap[row] = gap + 1;
+                }
+                else
+                {
+                    column[row] = residues[nextResidue[row]++];
                 }
             }
+            int colScore = scoreBuiltColumn(column, nRows, scratch);
+            if (columnScores != null)
+                columnScores[col] = colScore;
+            score += colScore;
         }
+        return score;
+    }
 
-        int score = 0;
-        for (int col=0; col<alignment[0].length; col++)
-            score += scoreColumn(alignment, col);
-        for (int row=0; row<alignment.length; row++)
-            score += gapPenaltiesForRow(alignment[row], ungapped);
+
+    // Scores a canonical gapping by updating the score of a similar one (the
+    // "base", e.g. a parent): columnScores[] and rowPenalties[] hold the base's
+    // vectors from scoreGapping() on entry, and this gapping's on exit. A row's
+    // cells differ from the base's only between the first and the last gap
+    // location where its gaps differ, so only columns in those ranges are
+    // rescored. Penalties are recomputed for rows whose gaps differ, or for
+    // every row if any row's first residue moved, since that changes which
+    // columns are charged. Falls back to scoreGapping() if most columns differ.
+    static int rescoreGapping(CompactSequenceDataset seqs, char[] gapLocations, int base, int[] gapStarts,
+                              int nCols, char[] baseGapLocations, int baseBase, int baseScore,
+                              int[] columnScores, int[] rowPenalties)
+    {
+        int nRows = seqs.nRows;
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(nRows, nCols);
+        boolean[] dirtyCols = scratch.dirtyCols;
+        boolean[] dirtyRows = scratch.dirtyRows;
+
+        // Find differing rows & column ranges.
+        int score = baseScore;
+        int firstDirtyCol = nCols;
+        int lastDirtyCol = -1;
+        boolean marksMoved = false;
+        // Gene indices below are relative to base & baseBase.
+        for (int row=0; row<nRows; row++)
+        {
+            int from = gapStarts[row];
+            int to = gapStarts[row+1];
+            int first = from;
+            while (first < to  &&  gapLocations[base+first] == baseGapLocations[baseBase+first])
+                first++;
+            dirtyRows[row] = first < to;
+            if (first == to)
+                continue;
+            int last = to - 1;
+            while (gapLocations[base+last] == baseGapLocations[baseBase+last])
+                last--;
+            int lo = Math.min(gapLocations[base+first], baseGapLocations[baseBase+first]);
+            int hi = Math.max(gapLocations[base+last], baseGapLocations[baseBase+last]);
+            Arrays.fill(dirtyCols, lo, hi+1, true);
+            firstDirtyCol = Math.min(firstDirtyCol, lo);
+            lastDirtyCol = Math.max(lastDirtyCol, hi);
+            if (firstResidueCol(gapLocations, base+from, base+to) !=
+                firstResidueCol(baseGapLocations, baseBase+from, baseBase+to))
+                marksMoved = true;
+        }
+
+        // If most columns changed, a full rescore is cheaper.
+        int nDirtyCols = 0;
+        for (int col=firstDirtyCol; col<=lastDirtyCol; col++)
+            if (dirtyCols[col])
+                nDirtyCols++;
+        if (nDirtyCols > nCols * MAX_DIRTY_FRACTION_FOR_RESCORE)
+        {
+            Arrays.fill(dirtyCols, 0, nCols, false);
+            return scoreGapping(seqs, gapLocations, base, gapStarts, nCols, columnScores, rowPenalties);
+        }
+
+        // Rescore dirty columns. Cursors only move forward, so each row's gaps
+        // are walked once.
+        int[] nextGap = scratch.nextGap;
+        byte[] column = scratch.column;
+        byte[] residues = seqs.residues;
+        int[] offsets = seqs.offsets;
+        for (int row=0; row<nRows; row++)
+            nextGap[row] = base + gapStarts[row];
+        for (int col=firstDirtyCol; col<=lastDirtyCol; col++)
+        {
+            if (!dirtyCols[col])
+                continue;
+            dirtyCols[col] = false;
+            for (int row=0; row<nRows; row++)
+            {
+                int to = base + gapStarts[row+1];
+                int gap = nextGap[row];
+                while (gap < to  &&  gapLocations[gap] < col)
+                    gap++;
+                nextGap[row] = gap;
+                column[row] = (gap < to  &&  gapLocations[gap] == col)  ?
+                              ResidueAlignment.GAP  :
+                              residues[offsets[row] + col - (gap - base - gapStarts[row])];
+            }
+            int colScore = scoreBuiltColumn(column, nRows, scratch);
+            score += colScore - columnScores[col];
+            columnScores[col] = colScore;
+        }
+
+        // Recompute penalties.
+        int nMarked = collectMarkedCols(gapLocations, base, gapStarts, nRows, nCols,
+                                        scratch.markedCols);
+        for (int row=0; row<nRows; row++)
+        {
+            if (!marksMoved  &&  !dirtyRows[row])
+                continue;
+            int penalty = rowPenalty(gapLocations, base+gapStarts[row], base+gapStarts[row+1],
+                                     scratch.markedCols, nMarked);
+            score += penalty - rowPenalties[row];
+            rowPenalties[row] = penalty;
+        }
         return score;
     }
 
 
-    private static int scoreColumn(char[][] alignment, int col)
+    // Pair score of a column built in scratch.column, via the column cache
+    // when the column fits in a key.
+    private static int scoreBuiltColumn(byte[] column, int nRows, Scratch scratch)
     {
-        int score = 0;
+        if (nRows > MAX_ROWS_FOR_COLUMN_KEY)
+            return scoreColumn(column, 0, nRows, scratch.counts);
+        long key = columnKey(column, 0, nRows);
+        int colScore = COLUMN_CACHE.get(key);
+        if (colScore == ScoreCache.MISS)
+        {
+            colScore = scoreColumnPairwise(column, 0, nRows);
+            COLUMN_CACHE.put(key, colScore);
+        }
+        return colScore;
+    }
+
+
+    // A row's first residue follows its run of leading gaps, which are the
+    // gaps whose locations equal their indices in the row.
+    private static int firstResidueCol(char[] gapLocations, int from, int to)
+    {
+        int gap = from;
+        while (gap < to  &&  gapLocations[gap] == gap-from)
+            gap++;
+        return gap - from;
+    }
+
 
+    // The columns collectUngappedCols() would mark (each row's first residue
+    // column), ascending and without duplicates, into markedCols[]. Returns
+    // how many.
+    private static int collectMarkedCols(char[] gapLocations, int base, int[] gapStarts,
+                                         int nRows, int nCols, int[] markedCols)
+    {
+        int n = 0;
+        for (int row=0; row<nRows; row++)
+        {
+            int col = firstResidueCol(gapLocations, base+gapStarts[row], base+gapStarts[row+1]);
+            if (col >= nCols)
+                continue;
+            int i = n;
+            while (i > 0  &&  markedCols[i-1] > col)
+                i--;
+            if (i > 0  &&  markedCols[i-1] == col)
+                continue;
+            System.arraycopy(markedCols, i, markedCols, i+1, n-i);
+            markedCols[i] = col;
+            n++;
+        }
+        return n;
+    }
+
+
+    // Gap penalties of 1 row, charged on the marked columns as in gapPenalties().
+    private static int rowPenalty(char[] gapLocations, int from, int to,
+                                  int[] markedCols, int nMarked)
+    {
+        int penalty = 0;
+        boolean prevWasGap = false;
+        int gap = from;
+        for (int i=0; i<nMarked; i++)
+        {
+            int col = markedCols[i];
+            while (gap < to  &&  gapLocations[gap] < col)
+                gap++;
+            boolean isGap = gap < to  &&  gapLocations[gap] == col;
+            if (isGap)
+                penalty -= prevWasGap  ?  1  :  11;      // extend : open
+            prevWasGap = isGap;
+        }
+        return penalty;
+    }
+
+
+    // Returns true if alignment is a gapping of the sequences in dataset (in
+    // dataset order) and scores at least threshold. Cheaper than comparing
+    // scoreAlignment() to threshold: bad rows are rejected before any scoring,
+    // and column scoring stops as soon as the outcome is decided.
+    static boolean verify(char[][] alignment, UngappedSequenceDataset dataset, int threshold)
+    {
+        if (alignment.length != dataset.size()  ||  alignment.length == 0)
+            return false;
+        ResidueAlignment coded;
         try
         {
-            for (int row1=0; row1<alignment.length-1; row1++)
+            coded = ResidueAlignment.fromChars(alignment);
+        }
+        catch (IllegalArgumentException x)
+        {
+            return false;
+        }
+        return verify(coded, dataset, threshold);
+    }
+
+
+    static boolean verify(ResidueAlignment alignment, UngappedSequenceDataset dataset, int threshold)
+    {
+        if (alignment.nRows != dataset.size())
+            return false;
+        if (!isGappingOf(alignment, dataset))
+            return false;
+
+        // Gap penalties are exact and cheap, so they're computed up front.
+        int w = alignment.nCols;
+        int n = alignment.nRows;
+        byte[] codes = alignment.codes;
+        Scratch scratch = SCRATCH.get();
+        int score = gapPenalties(alignment, scratch);
+
+        // Bound every column from above and below. For residues a1..ak in a
+        // column, each pair scores between the worse and the better of the two
+        // residues' extreme partner scores, so the column sum lies within
+        // (k-1)/2 times the sum of the residues' extremes.
+        long[] remainingBest = new long[w+1];
+        long[] remainingWorst = new long[w+1];
+        for (int col=w-1; col>=0; col--)
+        {
+            int k = 0;
+            long bestSum = 0;
+            long worstSum = 0;
+            for (int i=col*n; i<col*n+n; i++)
             {
-                char ch1 = alignment[row1][col];
-                if (ch1 == '-')
+                if (codes[i] == ResidueAlignment.GAP)
                     continue;
-                for (int row2=row1+1; row2<alignment.length; row2++)
+                k++;
+                bestSum += BEST_PAIR_SCORE[codes[i]];
+                worstSum += WORST_PAIR_SCORE[codes[i]];
+            }
+            remainingBest[col] = remainingBest[col+1] + Math.floorDiv((k-1) * bestSum, 2);
+            remainingWorst[col] = remainingWorst[col+1] - Math.floorDiv(-(k-1) * worstSum, 2);
+        }
+
+        // Score columns until the threshold is out of reach or guaranteed.
+        int[] counts = scratch.counts;
+        for (int col=0; col<w; col++)
+        {
+            if (score + remainingBest[col] < threshold)
+                return false;
+            if (score + remainingWorst[col] >= threshold)
+                return true;
+            score += scoreColumn(codes, col*n, n, counts);
+        }
+        return score >= threshold;
+    }
+
+
+    // Fails fast on the first row whose residue count or hash doesn't match
+    // the corresponding dataset sequence.
+    private static boolean isGappingOf(ResidueAlignment alignment, UngappedSequenceDataset dataset)
+    {
+        int[] lengths = dataset.getSequenceLengths();
+        int[] hashes = dataset.getSequenceHashes();
+        for (int row=0; row<alignment.nRows; row++)
+        {
+            int n = 0;
+            int hash = 0;
+            for (int col=0; col<alignment.nCols; col++)
+            {
+                byte code = alignment.get(row, col);
+                if (code == ResidueAlignment.GAP)
+                    continue;
+                n++;
+                hash = 31*hash + code;
+            }
+            if (n != lengths[row]  ||  hash != hashes[row])
+                return false;
+        }
+
+        // Hashes can collide, so confirm residue by residue.
+        CompactSequenceDataset seqs = dataset.compact();
+        for (int row=0; row<alignment.nRows; row++)
+        {
+            int indexInResidues = seqs.offsets[row];
+            for (int col=0; col<alignment.nCols; col++)
+            {
+                byte code = alignment.get(row, col);
+                if (code != ResidueAlignment.GAP  &&  code != seqs.residues[indexInResidues++])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+
+    // Packs a column into 5 bits per row. Exact (collision-free) for up to
+    // MAX_ROWS_FOR_COLUMN_KEY rows. Columns of different heights can share a
+    // key only if they differ by leading gaps, which don't affect the score.
+    private static long columnKey(byte[] codes, int from, int nRows)
+    {
+        long key = 0;
+        for (int i=from; i<from+nRows; i++)
+            key = (key << 5)  |  codes[i];
+        return key;
+    }
+
+
+    static long getColumnCacheHits()        { return COLUMN_CACHE.getHits();   }
+    static long getColumnCacheMisses()      { return COLUMN_CACHE.getMisses(); }
+    static double getColumnCacheHitRate()   { return COLUMN_CACHE.getHitRate(); }
+
+
+    // Collect all-gap columns. Note that the scan of each row stops at its
+    // first residue, so only those columns are marked; gap penalties are
+    // charged on the marked columns, and every scorer must agree on this.
+    // Overwrites the first nCols elements of ungapped[].
+    private static void collectUngappedCols(ResidueAlignment alignment, boolean[] ungapped)
+    {
+        Arrays.fill(ungapped, 0, alignment.nCols, false);
+        for (int row=0; row<alignment.nRows; row++)
+        {
+            for (int col=0; col<alignment.nCols; col++)
+            {
+                if (alignment.get(row, col) != ResidueAlignment.GAP)
                 {
-                    char ch2 = alignment[row2][col];
-                    if (ch2 == '-')
-                        continue;
-                    int partialScore = BLOSUM_62_MATRIX[ch1-'A'][ch2-'A'];
-                    assert partialScore >= -100  &&  partialScore <= 100  :
-                           "bad chars [" + ch1 + "][" + ch2 + "]";
-                    score += BLOSUM_62_MATRIX[ch1-'A'][ch2-'A'];
+                    ungapped[col] = true;
+                    break;
                 }
             }
         }
-        catch (Exception x)
+    }
+
+
+    // Sum of pair scores for the nRows codes starting at codes[from]. Tall
+    // columns are scored from residue counts, short ones pair by pair; both
+    // give identical results. counts[] is scratch, all 0 on entry and exit.
+    private static int scoreColumn(byte[] codes, int from, int nRows, int[] counts)
+    {
+        return nRows >= PROFILE_SCORING_MIN_ROWS  ?  scoreColumnByProfile(codes, from, nRows, counts)
+                                                  :  scoreColumnPairwise(codes, from, nRows);
+    }
+
+
+    // O(nRows + k^2) for k distinct residues. Pairs of different residues a,b
+    // contribute count(a)*count(b)*S(a,b); pairs of the same residue a
+    // contribute count(a)*(count(a)-1)/2*S(a,a).
+    private static int scoreColumnByProfile(byte[] codes, int from, int nRows, int[] counts)
+    {
+        // Build histogram. Bit n of present is set if code n occurs.
+        int present = 0;
+        for (int i=from; i<from+nRows; i++)
+        {
+            counts[codes[i]]++;
+            present |= 1 << codes[i];
+        }
+        present &= ~(1 << ResidueAlignment.GAP);
+
+        int score = 0;
+        for (int rest=present; rest!=0; rest&=rest-1)
         {
-            sop("?????");
+            int a = Integer.numberOfTrailingZeros(rest);
+            int countA = counts[a];
+            score += countA * (countA-1) / 2 * BLOSUM_62_FLAT[flatIndex(a, a)];
+            for (int others=rest&(rest-1); others!=0; others&=others-1)
+            {
+                int b = Integer.numberOfTrailingZeros(others);
+                score += countA * counts[b] * BLOSUM_62_FLAT[flatIndex(a, b)];
+            }
         }
 
+        // Reset scratch.
+        counts[ResidueAlignment.GAP] = 0;
+        for (int rest=present; rest!=0; rest&=rest-1)
+            counts[Integer.numberOfTrailingZeros(rest)] = 0;
+        return score;
+    }
+
+
+    // O(nRows^2).
+    private static int scoreColumnPairwise(byte[] codes, int from, int nRows)
+    {
+        int score = 0;
+        int end = from + nRows;
+        for (int i=from; i<end-1; i++)
+        {
+            int rowBase = codes[i] << 5;
+            if (rowBase == 0)
+                continue;       // gap
+            for (int j=i+1; j<end; j++)
+                score += BLOSUM_62_FLAT[rowBase | codes[j]];
+        }
         return score;
     }
 
 
     // Gap-open penalty = 11, gap-extend penalty = 1. Only look at columns
-    // that aren't completely gaps (ungappedCols[n] = true).
-    private static int gapPenaltiesForRow(char[] row, boolean[] ungappedCols)
+    // that aren't completely gaps (ungappedCols[n] = true). Walks the
+    // alignment column by column, tracking each row's previous char.
+    private static int gapPenalties(ResidueAlignment alignment, Scratch scratch)
     {
         int score = 0;
-        char prevChar = '#';
-        for (int col=0; col<row.length; col++)
+        int nRows = alignment.nRows;
+        byte[] codes = alignment.codes;
+        scratch.ensureCapacity(nRows, alignment.nCols);
+        boolean[] ungappedCols = scratch.ungappedCols;
+        collectUngappedCols(alignment, ungappedCols);
+        boolean[] prevWasGap = scratch.prevWasGap;
+        Arrays.fill(prevWasGap, 0, nRows, false);
+        for (int col=0; col<alignment.nCols; col++)
         {
             if (!ungappedCols[col])
                 continue;
-            char currentChar = row[col];
-            if (currentChar == '-')
+            int base = col * nRows;
+            for (int row=0; row<nRows; row++)
             {
-                if (prevChar == '-')
-                    score -= 1;     // extend
-                else
-                    score -= 11;    // open
+                boolean gap = codes[base+row] == ResidueAlignment.GAP;
+                if (gap)
+                    score -= prevWasGap[row]  ?  1  :  11;      // extend : open
+                prevWasGap[row] = gap;
             }
-            prevChar = currentChar;
         }
         return score;
     }
 
 
+    // Per-thread buffers for the scoring methods, grown as needed and never
+    // shrunk.
+    private static class Scratch
+    {
+        final int[]         counts          = new int[32];      // all 0 between uses
+        boolean[]           ungappedCols    = new boolean[0];
+        boolean[]           prevWasGap      = new boolean[0];
+        int[]               nextGap         = new int[0];       // row cursors for scoreGapping()
+        int[]               nextResidue     = new int[0];
+        byte[]              column          = new byte[0];
+        int[]               markedCols      = new int[0];
+        boolean[]           dirtyRows       = new boolean[0];
+        boolean[]           dirtyCols       = new boolean[0];   // all false between uses
+
+        void ensureCapacity(int nRows, int nCols)
+        {
+            if (ungappedCols.length < nCols)
+            {
+                ungappedCols = new boolean[nCols];
+                dirtyCols = new boolean[nCols];
+            }
+            if (prevWasGap.length < nRows)
+            {
+                prevWasGap = new boolean[nRows];
+                nextGap = new int[nRows];
+                nextResidue = new int[nRows];
+                column = new byte[nRows];
+                markedCols = new int[nRows];
+                dirtyRows = new boolean[nRows];
+            }
+        }
+    }
+
+
     static void sop(Object x)               { System.out.println(x); }
 
 
@@ -1,72 +1,216 @@
 package msg;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 
 /*
  * A chromosome contains 1 value for each gap to be inserted into any sequence of
- * the dataset. The value is the index (from 0) of the gap. Coincident gaps are
- * dealt with elsewhere. Gap locations (genes of the chromosome) are associated
- * with individual sequences, but not in any way that matters to the G.A. operators,
- * so the gap-to-containing-sequence mapping is supported elsewhere.
+ * the dataset. The value is the index (from 0) of the gap. Gap locations (genes
+ * of the chromosome) are associated with individual sequences, but not in any way
+ * that matters to the G.A. operators, so the gap-to-containing-sequence mapping is
+ * supported elsewhere.
+ *
+ * Chromosomes built for a dataset are canonical: each sequence's gaps are sorted
+ * and unique, and the operators restore that after every change, so every
+ * alignment has exactly 1 genome. Other chromosomes may have coincident gaps,
+ * which are resolved at decoding time by probing for the next free column.
+ *
+ * Genes are unsigned 16-bit values, so alignments are at most
+ * MAX_ALIGNMENT_WIDTH columns wide. Gene i is gapLocations[geneBase+i].
+ * Standalone chromosomes own the whole array; a Population packs a
+ * generation's genes into 1 matrix, and its chromosomes are views of the
+ * matrix's rows.
  */
 
 
 public class Chromosome implements Comparable<Chromosome>
 {
-    private static int      nextSn;
+    final static int                    MAX_ALIGNMENT_WIDTH = Character.MAX_VALUE + 1;
+
+    private final static AtomicInteger  nextSn = new AtomicInteger();
+
+    // Run with -Dmsg.checkDeltaEvaluation=true to verify every incremental
+    // evaluation against a full one.
+    private final static boolean        CHECK_DELTA_EVALUATION =
+        Boolean.getBoolean("msg.checkDeltaEvaluation");
+
+    // Per-thread scratch for evaluate(), so scoring a chromosome doesn't
+    // allocate an alignment.
+    private final static ThreadLocal<EvaluationScratch> SCRATCH =
+        ThreadLocal.withInitial(EvaluationScratch::new);
 
     protected int           maxGapIndex;                // = consensus width - 1
-    protected int[]         gapLocations;
-    protected int           sn = nextSn++;
+    protected char[]        gapLocations;               // maybe shared; see above
+    protected int           geneBase;
+    protected int           nGenes;
+    protected int[]         gapStarts;                  // null if not canonical; else see gapStarts()
+    protected int           sn = nextSn.getAndIncrement();
+    private long            fingerprint;                // sum of geneHash()es, unless...
+    private boolean         fingerprintIsStale;         // ... recanonicalized since
     private String          sval;                       // cached by toString()
             int             score = Integer.MIN_VALUE;  // for faster access
 
+    // Canonical chromosomes keep their score broken down by column and by row
+    // (see AlignmentScorer.rescoreGapping()), so kids can be scored from the
+    // differences. The vectors are valid for scoredDataset, which is null
+    // after any change to the genes.
+    private int[]                   columnScores;
+    private int[]                   rowPenalties;
+    private UngappedSequenceDataset scoredDataset;
+    private Chromosome              deltaBase;          // set by crossover(), cleared by evaluate()
+
 
     Chromosome()        { }
 
 
     Chromosome(int nGaps, int maxGapIndex)
     {
-        this.maxGapIndex = maxGapIndex;
-        gapLocations = new int[nGaps];
+        this.maxGapIndex = checkMaxGapIndex(maxGapIndex);
+        allocateGenes(nGaps);
+        recomputeFingerprint();
+    }
+
+
+    // Canonical, with each sequence's gaps at its start. Randomize before use.
+    Chromosome(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        this.maxGapIndex = checkMaxGapIndex(alignmentWidth - 1);
+        gapStarts = gapStarts(ungapped, alignmentWidth);
+        allocateGenes(gapStarts[gapStarts.length-1]);
+        for (int seqNum=0; seqNum<gapStarts.length-1; seqNum++)
+            for (int i=gapStarts[seqNum]; i<gapStarts[seqNum+1]; i++)
+                gapLocations[i] = (char)(i - gapStarts[seqNum]);
+        recomputeFingerprint();
+    }
+
+
+    // Gaps of sequence n are genes ret[n] thru ret[n+1]-1.
+    // Chromosomes for the same dataset & width can share the array.
+    static int[] gapStarts(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        int[] lengths = ungapped.getSequenceLengths();
+        int[] ret = new int[lengths.length+1];
+        for (int seqNum=0; seqNum<lengths.length; seqNum++)
+        {
+            assert lengths[seqNum] <= alignmentWidth;
+            ret[seqNum+1] = ret[seqNum] + alignmentWidth - lengths[seqNum];
+        }
+        return ret;
     }
 
 
     Chromosome(Chromosome src)
     {
+        this(src, new char[src.nGenes], 0);
+    }
+
+
+    // A view of matrix[geneBase...], initialized as a copy of src.
+    Chromosome(Chromosome src, char[] matrix, int geneBase)
+    {
+        assert geneBase + src.nGenes <= matrix.length;
         this.maxGapIndex = src.maxGapIndex;
-        this.gapLocations = new int[src.gapLocations.length];
-        System.arraycopy(src.gapLocations, 0,
-                         this.gapLocations, 0, this.gapLocations.length);
+        this.gapStarts = src.gapStarts;
+        this.gapLocations = matrix;
+        this.geneBase = geneBase;
+        this.nGenes = src.nGenes;
+        System.arraycopy(src.gapLocations, src.geneBase, gapLocations, geneBase, nGenes);
+        this.fingerprint = src.fingerprint;
+        this.fingerprintIsStale = src.fingerprintIsStale;
         this.sval = src.sval;  // immutable strings, so no risk
-        this.score = score;
+        this.score = src.score;
+        if (src.scoredDataset != null)
+        {
+            this.columnScores = src.columnScores.clone();
+            this.rowPenalties = src.rowPenalties.clone();
+            this.scoredDataset = src.scoredDataset;
+        }
+    }
+
+
+    // Overwrites this chromosome with src, reusing this chromosome's genes
+    // when they're the right length.
+    void copyFrom(Chromosome src)
+    {
+        if (gapLocations == null  ||  nGenes != src.nGenes)
+            allocateGenes(src.nGenes);
+        System.arraycopy(src.gapLocations, src.geneBase, gapLocations, geneBase, nGenes);
+        maxGapIndex = src.maxGapIndex;
+        gapStarts = src.gapStarts;
+        fingerprint = src.fingerprint;
+        fingerprintIsStale = src.fingerprintIsStale;
+        sval = src.sval;
+        score = src.score;
+        deltaBase = null;
+        scoredDataset = null;
+        if (src.scoredDataset != null)
+        {
+            allocateScoreVectors(src.columnScores.length, src.rowPenalties.length);
+            System.arraycopy(src.columnScores, 0, columnScores, 0, columnScores.length);
+            System.arraycopy(src.rowPenalties, 0, rowPenalties, 0, rowPenalties.length);
+            scoredDataset = src.scoredDataset;
+        }
     }
 
 
     // Arg is a string extracted from database file. Format is e.g. "12_34_56".
     Chromosome(String dbString, int maxGapIndex)
     {
-        this.maxGapIndex = maxGapIndex;
+        this.maxGapIndex = checkMaxGapIndex(maxGapIndex);
 
         // Major delimiter is '_'
         String[] pieces = dbString.split("_");
-        gapLocations = new int[pieces.length];
+        allocateGenes(pieces.length);
 
         // Each piece is a gap location.
-        for (int i=0; i<gapLocations.length; i++)
-            gapLocations[i] = Integer.parseInt(pieces[i]);
+        for (int i=0; i<nGenes; i++)
+        {
+            int loc = Integer.parseInt(pieces[i]);
+            if (loc < 0  ||  loc > Character.MAX_VALUE)
+                throw new IllegalArgumentException("Gap location out of range: " + loc);
+            gapLocations[i] = (char)loc;
+        }
+        recomputeFingerprint();
+    }
+
+
+    // Throws IllegalArgumentException if genes can't hold maxGapIndex.
+    static int checkMaxGapIndex(int maxGapIndex) throws IllegalArgumentException
+    {
+        if (maxGapIndex >= MAX_ALIGNMENT_WIDTH)
+            throw new IllegalArgumentException("Alignment width " + (maxGapIndex+1) +
+                                               " > " + MAX_ALIGNMENT_WIDTH);
+        return maxGapIndex;
+    }
+
+
+    // Gives this chromosome its own array of n genes. Views can't be resized.
+    protected void allocateGenes(int n)
+    {
+        assert gapLocations == null  ||  ownsGenes()  :  "Resizing a view";
+        gapLocations = new char[n];
+        geneBase = 0;
+        nGenes = n;
+    }
+
+
+    private boolean ownsGenes()
+    {
+        return geneBase == 0  &&  gapLocations.length == nGenes;
     }
 
 
     String toStringForDatabase()
     {
-        String s = "";
-        for (int x: gapLocations)
-            s += x + "_";
-        if (s.length() > 0)
-            s = s.substring(0, s.length()-1);
-        return s;
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<nGenes; i++)
+        {
+            if (i > 0)
+                sb.append('_');
+            sb.append((int)gapLocations[geneBase+i]);
+        }
+        return sb.toString();
     }
 
 
@@ -83,152 +227,435 @@ public class Chromosome implements Comparable<Chromosome>
 
     String gapsToString()
     {
-        String s = "";
-        for (int gloc: gapLocations)
-            s += gloc + "/";
-        return s;
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<nGenes; i++)
+            sb.append((int)gapLocations[geneBase+i]).append('/');
+        return sb.toString();
     }
 
 
-    // Not valid unless chromosome has been evaluated.
+    // Not valid unless chromosome has been evaluated. Ties are broken by
+    // fingerprint, then by serial number, so only a chromosome compares equal
+    // to itself.
     public int compareTo(Chromosome that)
     {
         assert score != Integer.MIN_VALUE : "Compared before score was set.";
         assert that.score != Integer.MIN_VALUE : "Compared before score was set.";
 
         if (score != that.score)
-            return score - that.score;
-        else if (!(this.toString().equals(that.toString())))
-            return this.toString().compareTo(that.toString());
+            return Integer.compare(score, that.score);
+        else if (fingerprint() != that.fingerprint())
+            return Long.compare(fingerprint(), that.fingerprint());
         else
-            return this.sn - that.sn;
+            return Integer.compare(this.sn, that.sn);
     }
 
 
+    // Same genes and width. Fingerprints differ for almost all unequal
+    // chromosomes, so the gene-by-gene check is rarely reached.
     public boolean equals(Object x)
     {
+        if (!(x instanceof Chromosome))
+            return false;
         Chromosome that = (Chromosome)x;
-        return this.toString().equals(that.toString());
+        return this.fingerprint() == that.fingerprint()  &&
+               this.maxGapIndex == that.maxGapIndex  &&
+               Arrays.equals(this.gapLocations, this.geneBase, this.geneBase + this.nGenes,
+                             that.gapLocations, that.geneBase, that.geneBase + that.nGenes);
     }
 
 
     public int hashCode()
     {
-        assert score != Integer.MIN_VALUE : "Hashed before score was set.";
-        return score;
+        long fp = fingerprint();
+        return (int)(fp ^ (fp >>> 32));
+    }
+
+
+    // 64-bit hash of the genes. It's a sum of independent per-site hashes, so
+    // operators that change a few genes update it in O(1) per change.
+    // Recanonicalizing can move every gene of a sequence, so it just marks
+    // the fingerprint stale, and it's recomputed here when next needed.
+    long fingerprint()
+    {
+        if (fingerprintIsStale)
+            recomputeFingerprint();
+        return fingerprint;
+    }
+
+
+    private static long geneHash(int index, int gapLocation)
+    {
+        return ScoreCache.mix(((long)index << 32)  |  (gapLocation & 0xffffffffL));
+    }
+
+
+    // For code that writes genes directly.
+    protected void recomputeFingerprint()
+    {
+        long fp = 0;
+        for (int i=0; i<nGenes; i++)
+            fp += geneHash(i, gapLocations[geneBase+i]);
+        fingerprint = fp;
+        fingerprintIsStale = false;
+        sval = null;
     }
 
 
-    private final static int randomFrom0ThruN(int n)
+    void randomize(SplittableRandom random)
     {
-        return (int)((n+1) * Math.random());
+        scoredDataset = null;
+        for (int i=0; i<nGenes; i++)
+            gapLocations[geneBase+i] = (char)random.nextInt(maxGapIndex+1);
+        recomputeFingerprint();
+        canonicalize();
     }
 
 
-    void randomize()
+    boolean isCanonical()
     {
-        for (int i=0; i<gapLocations.length; i++)
-            gapLocations[i] = (int)((maxGapIndex+1) * Math.random());
+        return gapStarts != null;
     }
 
 
-    // Tribe of origin is automatically maintained during the exchange, since
-    // it's stored in the upper bits of the chromosome's values.
-    static Chromosome[] crossover(Chromosome ma, Chromosome pa, float oddsPerSite)
+    // No-op unless canonical.
+    protected void canonicalize()
+    {
+        if (gapStarts == null)
+            return;
+        for (int seqNum=0; seqNum<gapStarts.length-1; seqNum++)
+            canonicalizeSegment(gapStarts[seqNum], gapStarts[seqNum+1]);
+    }
+
+
+    // Makes genes [from..to) strictly increasing and within [0, maxGapIndex]:
+    // sorts, moves each duplicate right of its predecessor, and moves any that
+    // would run off the end back left. Operators leave segments nearly
+    // sorted, so insertion sort is the right sort.
+    private void canonicalizeSegment(int from, int to)
+    {
+        char[] genes = gapLocations;
+        from += geneBase;
+        to += geneBase;
+        int i = from + 1;
+        while (i < to  &&  genes[i] > genes[i-1])
+            i++;
+        if (i >= to  &&  (to == from  ||  genes[to-1] <= maxGapIndex))
+            return;
+        assert to - from <= maxGapIndex + 1;
+
+        for (; i<to; i++)
+        {
+            char gene = genes[i];
+            int j = i - 1;
+            while (j >= from  &&  genes[j] > gene)
+            {
+                genes[j+1] = genes[j];
+                j--;
+            }
+            genes[j+1] = gene;
+        }
+        // Gene i can't be right of maxGapIndex - (to-1-i), or the genes after
+        // it won't fit. Clamping in the same pass keeps genes in 16 bits.
+        int prev = -1;
+        for (i=from; i<to; i++)
+        {
+            int gene = Math.min(Math.max(genes[i], prev+1), maxGapIndex - (to-1-i));
+            genes[i] = (char)gene;
+            prev = gene;
+        }
+        fingerprintIsStale = true;
+        scoredDataset = null;
+        sval = null;
+    }
+
+
+    // At each site, with odds oddsPerSite, the kids switch which parent they
+    // copy from, so kid 0 gets alternating runs of ma's & pa's genes and kid 1
+    // gets the rest. Kids are overwritten in place, so recycled instances can
+    // be passed in; they must be distinct from the parents.
+    static void crossover(Chromosome ma, Chromosome pa, float oddsPerSite,
+                          SplittableRandom random, Chromosome kid0, Chromosome kid1)
     {
         assert ma.length() == pa.length() :
                "Unequal lengths: " + ma.length() + " != " + pa.length();
-
-        // Build a template.
-        boolean[] template = new boolean[ma.length()];
+        assert kid0 != ma  &&  kid0 != pa  &&  kid1 != ma  &&  kid1 != pa;
+
+        assert Arrays.equals(ma.gapStarts, pa.gapStarts);
+        kid0.resetForGenes(ma);
+        kid1.resetForGenes(ma);
+        kid0.deltaBase = ma;
+        kid1.deltaBase = pa;
+        char[] maGenes = ma.gapLocations;
+        char[] paGenes = pa.gapLocations;
+        char[] kid0Genes = kid0.gapLocations;
+        char[] kid1Genes = kid1.gapLocations;
+        int maBase = ma.geneBase;
+        int paBase = pa.geneBase;
+        int kid0Base = kid0.geneBase;
+        int kid1Base = kid1.geneBase;
+        // Kid 0 starts as ma's fingerprint, adjusted at sites where it takes
+        // a different gene from pa. At every site the kids hold the parents'
+        // 2 genes between them, so kid 1's fingerprint is what's left over.
         boolean b = true;
-        for (int i=0; i<template.length; i++)
+        long fp0 = ma.fingerprint();
+        for (int i=0; i<ma.nGenes; i++)
         {
-            if (Math.random() <= oddsPerSite)
+            if (random.nextDouble() <= oddsPerSite)
                 b = !b;
-            template[i] = b;
+            char maGene = maGenes[maBase+i];
+            char paGene = paGenes[paBase+i];
+            kid0Genes[kid0Base+i] = b ? maGene : paGene;
+            kid1Genes[kid1Base+i] = b ? paGene : maGene;
+            if (!b  &&  maGene != paGene)
+                fp0 += geneHash(i, paGene) - geneHash(i, maGene);
         }
+        kid0.fingerprint = fp0;
+        kid1.fingerprint = ma.fingerprint() + pa.fingerprint() - fp0;
+        kid0.fingerprintIsStale = false;
+        kid1.fingerprintIsStale = false;
+        kid0.canonicalize();
+        kid1.canonicalize();
+    }
 
-        // Produce offspring.
-        Chromosome[] kids = new Chromosome[2];
-        for (int i=0; i<2; i++)
-            kids[i] = new Chromosome(ma.gapLocations.length, ma.maxGapIndex);
-        for (int i=0; i<template.length; i++)
-        {
-            kids[0].gapLocations[i] = template[i] ? ma.gapLocations[i] : pa.gapLocations[i];
-            kids[1].gapLocations[i] = template[i] ? pa.gapLocations[i] : ma.gapLocations[i];
-        }
-        return kids;
+
+    // Prepares a recycled instance to receive nGaps new genes. Forgets the
+    // score and cached string.
+    private void resetForGenes(int nGaps, int maxGapIndex)
+    {
+        if (gapLocations == null  ||  nGenes != nGaps)
+            allocateGenes(nGaps);
+        this.maxGapIndex = maxGapIndex;
+        sval = null;
+        score = Integer.MIN_VALUE;
+        scoredDataset = null;
+    }
+
+
+    // For crossover: kids are canonical iff their parents are.
+    private void resetForGenes(Chromosome ma)
+    {
+        resetForGenes(ma.nGenes, ma.maxGapIndex);
+        gapStarts = ma.gapStarts;
     }
 
 
     // Mutation rate = odds of changing 1 gap.
-    void mutate(float oddsPerSite)
+    void mutate(float oddsPerSite, SplittableRandom random)
     {
-        for (int i=0; i<gapLocations.length; i++)
+        if (gapStarts == null)
         {
-            if (Math.random() < oddsPerSite)
+            for (int i=0; i<nGenes; i++)
+                if (random.nextDouble() < oddsPerSite)
+                    setGene(i, random.nextInt(maxGapIndex+1));
+            return;
+        }
+
+        // Same draws as above, but only sequences with mutated gaps need to
+        // be recanonicalized.
+        for (int seqNum=0; seqNum<gapStarts.length-1; seqNum++)
+        {
+            boolean mutated = false;
+            for (int i=gapStarts[seqNum]; i<gapStarts[seqNum+1]; i++)
             {
-                gapLocations[i] = (int)((1+maxGapIndex)*Math.random());
+                if (random.nextDouble() < oddsPerSite)
+                {
+                    setGene(i, random.nextInt(maxGapIndex+1));
+                    mutated = true;
+                }
             }
+            if (mutated)
+                canonicalizeSegment(gapStarts[seqNum], gapStarts[seqNum+1]);
         }
     }
 
 
     int getGapLocation(int n)
     {
-        assert n >= 0  &&  n <= gapLocations.length-1  :
-               "Bad gap location " + n + " (max = " + (gapLocations.length-1) + ").";
-        return gapLocations[n];
+        assert n >= 0  &&  n <= nGenes-1  :
+               "Bad gap location " + n + " (max = " + (nGenes-1) + ").";
+        return gapLocations[geneBase+n];
     }
 
 
-    // Sets score to != Integer.MIN_VALUE.
+    // Sets score to != Integer.MIN_VALUE. Genes that have been scored before,
+    // by any population, are looked up in the FitnessCache. Otherwise kids of
+    // canonical parents are rescored from the parent's score vectors.
     void evaluate(UngappedSequenceDataset ungapped, int alignmentWidth)
     {
-        char[][] charArrs = toCharArrays(ungapped, alignmentWidth);
-        score = AlignmentScorer.scoreAlignment(charArrs);
+        sval = null;
+        Chromosome base = deltaBase;
+        deltaBase = null;
+        boolean canRescore = base != null  &&  canRescoreFrom(base, ungapped, alignmentWidth);
+
+        score = FitnessCache.get(ungapped, alignmentWidth, fingerprint());
+        if (score != ScoreCache.MISS)
+        {
+            // A copy of its parent keeps the parent's vectors, so its own
+            // kids can still be rescored from them.
+            if (canRescore  &&  equals(base))
+                copyScoreVectors(base, ungapped, alignmentWidth);
+            return;
+        }
+
+        if (canRescore)
+        {
+            evaluateFromBase(base, ungapped, alignmentWidth);
+            FitnessCache.put(ungapped, alignmentWidth, fingerprint(), score);
+            return;
+        }
+
+        if (gapStarts != null)
+        {
+            // Canonical => score from the gaps; no alignment needed.
+            assert gapStarts[gapStarts.length-1] == nGenes;
+            allocateScoreVectors(alignmentWidth, gapStarts.length-1);
+            score = AlignmentScorer.scoreGapping(ungapped.compact(),
+                                                 gapLocations, geneBase, gapStarts, alignmentWidth,
+                                                 columnScores, rowPenalties);
+            scoredDataset = ungapped;
+        }
+        else
+        {
+            EvaluationScratch scratch = SCRATCH.get();
+            ResidueAlignment alignment = scratch.alignment(ungapped.size(), alignmentWidth);
+            fillResidueAlignment(ungapped, alignment, scratch.isGap);
+            score = AlignmentScorer.scoreAlignmentCached(alignment);
+        }
+        FitnessCache.put(ungapped, alignmentWidth, fingerprint(), score);
     }
 
 
-    char[][] toCharArrays(UngappedSequenceDataset ungapped, int alignmentWidth)
+    private boolean canRescoreFrom(Chromosome base, UngappedSequenceDataset ungapped,
+                                   int alignmentWidth)
     {
-        // Build empty alignment.
-        int nSeqs = ungapped.size();
-        char[][] gappedAlignment = new char[nSeqs][alignmentWidth];
+        return gapStarts != null                                        &&
+               base.scoredDataset == ungapped                           &&
+               base.maxGapIndex == alignmentWidth-1                     &&
+               maxGapIndex == alignmentWidth-1                          &&
+               (base.gapStarts == gapStarts  ||  Arrays.equals(base.gapStarts, gapStarts));
+    }
 
-        // Place gaps.
-        int gapIndexInEntireChromosome = 0;
-        int seqNum = 0;
-        for (String ungappedSeq: ungapped.values())
+
+    private void evaluateFromBase(Chromosome base, UngappedSequenceDataset ungapped,
+                                  int alignmentWidth)
+    {
+        copyScoreVectors(base, ungapped, alignmentWidth);
+        CompactSequenceDataset seqs = ungapped.compact();
+        score = AlignmentScorer.rescoreGapping(seqs, gapLocations, geneBase, gapStarts,
+                                               alignmentWidth,
+                                               base.gapLocations, base.geneBase, base.score,
+                                               columnScores, rowPenalties);
+
+        if (CHECK_DELTA_EVALUATION)
         {
-            int nGapsThisSeq = alignmentWidth - ungappedSeq.length();
-            for (int i=0; i<nGapsThisSeq; i++)
+            int[] fullColumnScores = new int[alignmentWidth];
+            int[] fullRowPenalties = new int[rowPenalties.length];
+            int fullScore = AlignmentScorer.scoreGapping(seqs, gapLocations, geneBase, gapStarts,
+                                                         alignmentWidth, fullColumnScores, fullRowPenalties);
+            if (fullScore != score                                  ||
+                !Arrays.equals(fullColumnScores, columnScores)      ||
+                !Arrays.equals(fullRowPenalties, rowPenalties))
+                throw new IllegalStateException("Delta evaluation gave " + score +
+                                                ", full evaluation gave " + fullScore +
+                                                " for " + this + " from " + base);
+        }
+    }
+
+
+    private void copyScoreVectors(Chromosome src, UngappedSequenceDataset ungapped,
+                                  int alignmentWidth)
+    {
+        allocateScoreVectors(alignmentWidth, gapStarts.length-1);
+        System.arraycopy(src.columnScores, 0, columnScores, 0, alignmentWidth);
+        System.arraycopy(src.rowPenalties, 0, rowPenalties, 0, rowPenalties.length);
+        scoredDataset = ungapped;
+    }
+
+
+    private void allocateScoreVectors(int nCols, int nRows)
+    {
+        if (columnScores == null  ||  columnScores.length != nCols)
+            columnScores = new int[nCols];
+        if (rowPenalties == null  ||  rowPenalties.length != nRows)
+            rowPenalties = new int[nRows];
+    }
+
+
+    // Same layout as toCharArrays(), but built directly from the dataset's
+    // residue codes.
+    ResidueAlignment toResidueAlignment(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        ResidueAlignment alignment = new ResidueAlignment(ungapped.size(), alignmentWidth);
+        fillResidueAlignment(ungapped, alignment, new boolean[alignmentWidth]);
+        return alignment;
+    }
+
+
+    // Overwrites every cell of alignment. isGap[] is scratch, at least as long
+    // as the alignment is wide; it's only used to resolve coincident gaps in
+    // chromosomes that aren't canonical.
+    private void fillResidueAlignment(UngappedSequenceDataset ungapped,
+                                      ResidueAlignment alignment, boolean[] isGap)
+    {
+        CompactSequenceDataset seqs = ungapped.compact();
+        byte[] residues = seqs.residues;
+        int nSeqs = seqs.nRows;
+        int alignmentWidth = alignment.nCols;
+        byte[] codes = alignment.codes;
+        assert alignment.nRows == nSeqs;
+
+        // Canonical => each row is a linear merge of its sorted gaps & its residues.
+        if (gapStarts != null)
+        {
+            assert gapStarts.length == nSeqs+1  &&  gapStarts[nSeqs] == nGenes;
+            for (int seqNum=0; seqNum<nSeqs; seqNum++)
             {
-                int gapLocation = gapLocations[gapIndexInEntireChromosome];
-                while (gappedAlignment[seqNum][gapLocation] == '-')
-                    gapLocation = (gapLocation + 1) % alignmentWidth;
-                gappedAlignment[seqNum][gapLocation] = '-';
-                gapIndexInEntireChromosome++;
+                int nextGap = geneBase + gapStarts[seqNum];
+                int endGap = geneBase + gapStarts[seqNum+1];
+                int indexInResidues = seqs.offsets[seqNum];
+                for (int col=0; col<alignmentWidth; col++)
+                {
+                    if (nextGap < endGap  &&  gapLocations[nextGap] == col)
+                    {
+                        codes[col*nSeqs + seqNum] = ResidueAlignment.GAP;
+                        nextGap++;
+                    }
+                    else
+                    {
+                        codes[col*nSeqs + seqNum] = residues[indexInResidues++];
+                    }
+                }
             }
-            seqNum++;
+            return;
         }
 
-        // Place chars in non-gap locations in gappedAlignment[][].
-        seqNum = 0;
-        for (String ungappedSeq: ungapped.values())
+        int gapIndexInEntireChromosome = geneBase;
+        for (int seqNum=0; seqNum<nSeqs; seqNum++)
         {
-            int indexInUngapped = 0;
-            for (int col=0; col<gappedAlignment[0].length; col++)
+            // Place gaps.
+            Arrays.fill(isGap, 0, alignmentWidth, false);
+            int nGapsThisSeq = alignmentWidth - (seqs.offsets[seqNum+1] - seqs.offsets[seqNum]);
+            for (int i=0; i<nGapsThisSeq; i++)
             {
-                if (gappedAlignment[seqNum][col] == '-')
-                    continue;
-                gappedAlignment[seqNum][col] = ungappedSeq.charAt(indexInUngapped++);
+                int gapLocation = gapLocations[gapIndexInEntireChromosome++];
+                while (isGap[gapLocation])
+                    gapLocation = (gapLocation + 1) % alignmentWidth;
+                isGap[gapLocation] = true;
             }
-            seqNum++;
+
+            // Place residues in non-gap locations.
+            int indexInResidues = seqs.offsets[seqNum];
+            for (int col=0; col<alignmentWidth; col++)
+                codes[col*nSeqs + seqNum] = isGap[col]  ?  ResidueAlignment.GAP
+                                                        :  residues[indexInResidues++];
         }
+    }
+
 
-        return gappedAlignment;
+    char[][] toCharArrays(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        return toResidueAlignment(ungapped, alignmentWidth).toCharArrays();
     }
 
 
@@ -242,9 +669,64 @@ public class Chromosome implements Comparable<Chromosome>
     }
 
 
+    // The gapped alignment, by sequence name, e.g. to seed a population at
+    // another width via SizeAdjustingChromosome.
+    SequenceDataset toSequenceDataset(UngappedSequenceDataset ungapped, int alignmentWidth)
+    {
+        SequenceDataset ret = new SequenceDataset(ungapped.getName());
+        String[] names = ungapped.compact().names;
+        char[][] charArrs = toCharArrays(ungapped, alignmentWidth);
+        for (int row=0; row<charArrs.length; row++)
+            ret.put(names[row], new String(charArrs[row]));
+        return ret;
+    }
+
+
+    // One per thread. The alignment is replaced only when the shape changes,
+    // e.g. when one thread evaluates for several consensus widths.
+    private static class EvaluationScratch
+    {
+        private ResidueAlignment    alignment;
+        private boolean[]           isGap           = new boolean[0];
+
+        ResidueAlignment alignment(int nRows, int nCols)
+        {
+            if (alignment == null  ||  alignment.nRows != nRows  ||  alignment.nCols != nCols)
+                alignment = new ResidueAlignment(nRows, nCols);
+            if (isGap.length < nCols)
+                isGap = new boolean[nCols];
+            return alignment;
+        }
+    }
+
+
+    // If canonical, the sequence's gaps are then recanonicalized, so loc may
+    // end up at a different index.
+    void setGapLocation(int index, int loc)
+    {
+        setGene(index, loc);
+        if (gapStarts != null)
+        {
+            int seqNum = 0;
+            while (gapStarts[seqNum+1] <= index)
+                seqNum++;
+            canonicalizeSegment(gapStarts[seqNum], gapStarts[seqNum+1]);
+        }
+    }
+
+
+    private void setGene(int index, int loc)
+    {
+        scoredDataset = null;
+        if (!fingerprintIsStale)
+            fingerprint += geneHash(index, loc) - geneHash(index, gapLocations[geneBase+index]);
+        gapLocations[geneBase+index] = (char)loc;
+        sval = null;
+    }
+
+
     static void sop(Object x)               { System.out.println(x);             }
-    int length()                            { return gapLocations.length;        }
+    int length()                            { return nGenes;                     }
     int consensusWidth()                    { return maxGapIndex + 1;            }
-    void setGapLocation(int index, int loc) { gapLocations[index] = loc;         }
     boolean isEvaluated()                   { return score != Integer.MIN_VALUE; }
 }
@@ -1,95 +1,249 @@
 package msg;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
 
 
 //
-// Parses an alignment pasted from the ClustalW results panel.
+// Parses an alignment pasted from the ClustalW results panel, or any
+// Clustal-format alignment. The file is streamed through 1 buffer and each
+// row grows in its own byte array, so parsing is linear in the file size and
+// there's no limit on the number or length of sequences. Residues are
+// validated as they're appended.
 //
 
 
 class ClustalParser
 {
-    private final static int    MAX_SEQUENCES       =  8;
-    private final static int    MAX_SEQUENCE_LEN    = 50;
-    private       static File   file;
+    // Caps that every parse used to apply. Pass them to parseFileToGapped(f,
+    // maxSequences, maxSequenceLen) to reproduce results from before they
+    // were lifted.
+    final static int                LEGACY_MAX_SEQUENCES    =  8;
+    final static int                LEGACY_MAX_SEQUENCE_LEN = 50;
+    final static int                UNLIMITED               = Integer.MAX_VALUE;
+
+    private final static int        BUFFER_SIZE             = 1 << 16;
+    private final static String     AAS_AND_GAP             = "ACDEFGHIKLMNPQRSTVWY-";
+    private final static boolean[]  IS_AA_OR_GAP            = new boolean[128];
+
+    static
+    {
+        for (int i=0; i<AAS_AND_GAP.length(); i++)
+            IS_AA_OR_GAP[AAS_AND_GAP.charAt(i)] = true;
+    }
+
+    private File                    file;
+    private int                     maxSequences;
+    private int                     maxSequenceLen;
+    private Map<String, Row>        rows                    = new LinkedHashMap<String, Row>();
+    private int                     nFullRows;
+    private byte[]                  line                    = new byte[256];
+    private int                     lineLen;
+    private int                     lineNum;
+    private boolean                 seenHeaderOrRow;
+
+
+    private ClustalParser(File file, int maxSequences, int maxSequenceLen)
+    {
+        this.file = file;
+        this.maxSequences = maxSequences;
+        this.maxSequenceLen = maxSequenceLen;
+    }
 
 
     // Returns a map from sequence name to sequence, with gaps inserted by
-    // ClustalW. All sequences should be same length.
+    // ClustalW. Throws IOException if the file can't be read, contains
+    // anything but amino acids & gaps, or its sequences aren't all the same
+    // length.
     static SequenceDataset parseFileToGapped(File f) throws IOException
     {
-        file = f;
-        FileReader fr = new FileReader(file);
-        LineNumberReader lnr = new LineNumberReader(fr);
-        String datasetName = f.getName();
-        assert datasetName.endsWith(".clw");
-        datasetName = datasetName.substring(0, datasetName.length()-4);
-        SequenceDataset ret = new SequenceDataset(datasetName);
-        String line;
-        while ((line = lnr.readLine()) != null)
+        return parseFileToGapped(f, UNLIMITED, UNLIMITED);
+    }
+
+
+    // Keeps only the first maxSequences sequences, and only the first
+    // maxSequenceLen columns of each.
+    static SequenceDataset parseFileToGapped(File f, int maxSequences, int maxSequenceLen)
+        throws IOException
+    {
+        assert maxSequences > 0  &&  maxSequenceLen > 0;
+        return new ClustalParser(f, maxSequences, maxSequenceLen).parse();
+    }
+
+
+    private SequenceDataset parse() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] bytes = buf.array();
+            outer: while (channel.read(buf) >= 0)
+            {
+                int n = buf.position();
+                for (int i=0; i<n; i++)
+                {
+                    byte b = bytes[i];
+                    if (b == '\n')
+                    {
+                        parseLine();
+                        if (isDone())
+                            break outer;
+                    }
+                    else
+                    {
+                        appendToLine(b);
+                    }
+                }
+                buf.clear();
+            }
+            if (!isDone())
+                parseLine();
+        }
+        return toDataset();
+    }
+
+
+    private void appendToLine(byte b)
+    {
+        if (lineLen == line.length)
+            line = Arrays.copyOf(line, 2*lineLen);
+        line[lineLen++] = b;
+    }
+
+
+    // True when more input can't change the result.
+    private boolean isDone()
+    {
+        return rows.size() == maxSequences  &&  nFullRows == maxSequences;
+    }
+
+
+    // Sequence lines are a name, whitespace, residues, and optionally more
+    // whitespace and a residue count. Consensus lines start with whitespace.
+    // The header line (if any) starts with "CLUSTAL".
+    private void parseLine() throws IOException
+    {
+        lineNum++;
+        int len = lineLen;
+        lineLen = 0;
+        while (len > 0  &&  isWhitespace(line[len-1]))
+            len--;
+        if (len == 0  ||  isWhitespace(line[0]))
+            return;
+        if (!seenHeaderOrRow)
         {
-            line = line.trim();
-            if (line.length() == 0)
-                continue;
-            // Remove consensus value line (:.*)
-            if (isConsensusLine(line))
-                continue;
-            String[] pieces = line.split("\\s+");   // @ least 1 whitespace
-            String name = pieces[0];
-            String aligned = ret.get(name);
-            if (aligned == null)
-                ret.put(name, pieces[1]);
-            else
-                ret.put(name, aligned+pieces[1]);
-            if (ret.size() == MAX_SEQUENCES)
-                break;
+            seenHeaderOrRow = true;
+            if (startsWith(line, len, "CLUSTAL"))
+                return;
         }
-        lnr.close();
-        fr.close();
-        int len = ret.values().iterator().next().length();
-        for (String s: ret.values())
+
+        int nameEnd = 0;
+        while (nameEnd < len  &&  !isWhitespace(line[nameEnd]))
+            nameEnd++;
+        int residuesStart = nameEnd;
+        while (residuesStart < len  &&  isWhitespace(line[residuesStart]))
+            residuesStart++;
+        int residuesEnd = residuesStart;
+        while (residuesEnd < len  &&  !isWhitespace(line[residuesEnd]))
+            residuesEnd++;
+        if (residuesStart == residuesEnd)
+            throw new IOException(where() + "no residues");
+
+        String name = new String(line, 0, nameEnd, StandardCharsets.ISO_8859_1);
+        Row row = rows.get(name);
+        if (row == null)
         {
-            assert s.length() == len;
-            String err = isAAaOrGaps(s);
-            assert err == null : err;
+            if (rows.size() == maxSequences)
+                return;
+            row = new Row();
+            rows.put(name, row);
         }
+        if (row.len == maxSequenceLen)
+            return;
+        int end = (int)Math.min(residuesEnd, (long)residuesStart + maxSequenceLen - row.len);
+        row.append(line, residuesStart, end);
+        if (row.len == maxSequenceLen)
+            nFullRows++;
+    }
 
-        Collection<String> clonedKeys = new HashSet<String>(ret.keySet());
-        for (String k: clonedKeys)
+
+    private SequenceDataset toDataset() throws IOException
+    {
+        String datasetName = file.getName();
+        if (datasetName.endsWith(".clw"))
+            datasetName = datasetName.substring(0, datasetName.length()-4);
+        if (rows.isEmpty())
+            throw new IOException("No sequences in " + file.getName());
+
+        SequenceDataset ret = new SequenceDataset(datasetName);
+        int width = rows.values().iterator().next().len;
+        for (Map.Entry<String, Row> entry: rows.entrySet())
         {
-            if (ret.get(k).length() > MAX_SEQUENCE_LEN)
+            Row row = entry.getValue();
+            if (row.len != width)
+                throw new IOException("Ragged alignment in " + file.getName() + ": " +
+                                      entry.getKey() + " has width " + row.len + " != " + width);
+            ret.put(entry.getKey(), new String(row.residues, 0, row.len, StandardCharsets.ISO_8859_1));
+        }
+        return ret;
+    }
+
+
+    // Validates as it copies.
+    private class Row
+    {
+        byte[]          residues        = new byte[64];
+        int             len;
+
+        void append(byte[] src, int from, int to) throws IOException
+        {
+            if (len + to - from > residues.length)
+                residues = Arrays.copyOf(residues, Math.max(2*residues.length, len + to - from));
+            for (int i=from; i<to; i++)
             {
-                String v = ret.get(k).substring(0, MAX_SEQUENCE_LEN);
-                ret.remove(k);
-                ret.put(k, v);
+                byte b = src[i];
+                if (b < 0  ||  !IS_AA_OR_GAP[b])
+                    throw new IOException(where() + "illegal char |" + (char)(b & 0xff) + "|");
+                residues[len++] = b;
             }
         }
+    }
 
-        return ret;
+
+    private String where()
+    {
+        return file.getName() + ", line " + lineNum + ": ";
     }
 
 
-    private static boolean isConsensusLine(String s)
+    private static boolean isWhitespace(byte b)
     {
-        if (s.indexOf('|') >= 0)
-            return false;
+        return b == ' '  ||  b == '\t'  ||  b == '\r'  ||  b == '\f';
+    }
 
-        return s.indexOf(':') >= 0  ||
-               s.indexOf('.') >= 0  ||
-               s.indexOf('*') >= 0;
+
+    private static boolean startsWith(byte[] bytes, int len, String prefix)
+    {
+        if (len < prefix.length())
+            return false;
+        for (int i=0; i<prefix.length(); i++)
+            if (bytes[i] != prefix.charAt(i))
+                return false;
+        return true;
     }
 
 
     // Returns null if string only contains amino acid codes or gaps. Otherwise
     // returns an error message.
-    private final static String AAS_AND_GAP     = "ACDEFGHIKLMNPQRSTVWY-";
     static String isAAaOrGaps(String s)
     {
         for (int i=0; i<s.length(); i++)
             if (AAS_AND_GAP.indexOf(s.charAt(i)) < 0)
-                return "Illegal char in file " + file.getName() + ": |" + s.charAt(i) + "| in " + s;
+                return "Illegal char: |" + s.charAt(i) + "| in " + s;
         return null;
     }
 
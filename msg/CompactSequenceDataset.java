@@ -0,0 +1,76 @@
+package msg;
+
+import java.util.*;
+
+
+//
+// The residues of an UngappedSequenceDataset, stored the way the G.A. reads
+// them: immutable and addressed by row index. Rows are in name order, as in
+// the dataset. Row n is named names[n], and its residue codes (see
+// ResidueAlignment) are residues[offsets[n]] thru residues[offsets[n+1]-1],
+// all packed into 1 byte[]. Lengths and hashes are computed once, at
+// construction.
+//
+// This is the dataset's only copy of its codes. Scoring reads them straight
+// from the packed array, without a byte[] per row. The dataset's TreeMap of
+// strings stays, as the adapter for callers that use the Map API.
+//
+
+
+class CompactSequenceDataset
+{
+    final String[]                  names;
+    final byte[]                    residues;
+    final int[]                     offsets;        // nRows+1 of them
+    final int                       nRows;
+    private final int[]             lengths;
+    private final int[]             hashes;
+
+
+    // Row codes come from encoded, if it has an entry for the row's name;
+    // such entries must be ResidueAlignment.encodeUngapped() of the row.
+    // Other rows are encoded here.
+    CompactSequenceDataset(UngappedSequenceDataset src, Map<String, byte[]> encoded)
+    {
+        long nChars = 0;
+        for (String seq: src.values())
+            nChars += seq.length();
+        if (nChars > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many residues for 1 array: " + nChars);
+
+        nRows = src.size();
+        names = new String[nRows];
+        residues = new byte[(int)nChars];
+        offsets = new int[nRows+1];
+        lengths = new int[nRows];
+        hashes = new int[nRows];
+        int row = 0;
+        int pos = 0;
+        for (Map.Entry<String, String> entry: src.entrySet())
+        {
+            byte[] codes = (encoded == null)  ?  null  :  encoded.get(entry.getKey());
+            if (codes == null)
+                codes = ResidueAlignment.encodeUngapped(entry.getValue());
+            names[row] = entry.getKey();
+            offsets[row] = pos;
+            lengths[row] = codes.length;
+            int hash = 0;
+            for (byte code: codes)
+                hash = 31*hash + code;
+            hashes[row] = hash;
+            System.arraycopy(codes, 0, residues, pos, codes.length);
+            pos += codes.length;
+            row++;
+        }
+        offsets[nRows] = pos;
+    }
+
+
+    // Hash (31*h + code) of each row's codes. Not a copy, so don't modify.
+    int[] getHashes()                   { return hashes;            }
+
+    // Not a copy, so don't modify.
+    int[] getLengths()                  { return lengths;           }
+
+    int nResidues()                     { return residues.length;   }
+}
@@ -7,6 +7,7 @@ class ConsensusWidthModel extends TreeMap<Integer, Integer>
 {
     private ConsensusWidthPanel     view;
     private Integer                 lastKeyAdded;
+    private TreeMap<Integer, List<Chromosome>>  solutions = new TreeMap<Integer, List<Chromosome>>();
 
 
     private ConsensusWidthModel(ConsensusWidthModel src)
@@ -37,6 +38,32 @@ class ConsensusWidthModel extends TreeMap<Integer, Integer>
     }
 
 
+    // Records the top chromosomes (fittest first) found for width, for warm
+    // starts, and puts the fittest one's score. The chromosomes are copied, so
+    // they don't pin their population's gene matrix. Repaints the view.
+    synchronized void putSolution(int width, List<Chromosome> topChromosomes)
+    {
+        ArrayList<Chromosome> copies = new ArrayList<Chromosome>(topChromosomes.size());
+        for (Chromosome chromo: topChromosomes)
+            copies.add(new Chromosome(chromo));
+        solutions.put(width, copies);
+        put(width, copies.get(0).score);
+    }
+
+
+    // Returns the top chromosomes of the solved width nearest to width, or
+    // null if no width has been solved. Ties favor the smaller width.
+    synchronized List<Chromosome> nearestSolution(int width)
+    {
+        Integer below = solutions.floorKey(width);
+        Integer above = solutions.ceilingKey(width);
+        if (below == null  &&  above == null)
+            return null;
+        boolean useBelow = above == null  ||  (below != null  &&  width-below <= above-width);
+        return solutions.get(useBelow  ?  below  :  above);
+    }
+
+
     public String toString()
     {
         String s = "BinarySearchModel";
@@ -0,0 +1,171 @@
+package msg;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+//
+// Runs the multi-tribe G.A. for several consensus widths at once. Each width
+// gets its own headless MultiTribePanel, and all of their tribes share one
+// fork-join pool, so the pool's parallelism is the CPU budget for the whole
+// sweep no matter how many widths are in flight. Results are put into the
+// ConsensusWidthModel as they arrive.
+//
+// In warm-start mode, the width nearest the Clustal width starts cold, and
+// every other width starts after its neighbor on the way there, seeded from
+// that neighbor's best chromosomes. So widths run in 2 chains, out from the
+// Clustal width, and each width's seeds don't depend on timing.
+//
+// With a target score, the sweep stops early, like a miner that walks the
+// width program until a proof is good enough: once a width's best reaches
+// the target, widths that haven't started are skipped. Widths already
+// running finish. Which widths run then depends on timing, unless widths
+// run 1 at a time.
+//
+
+
+class ConsensusWidthSweep
+{
+    private UngappedSequenceDataset     ungappedDataset;
+    private SequenceDataset             clustalAlignment;
+    private int                         clustalScore;
+    private ConsensusWidthModel         model;
+    private int                         nTribes                     = 10;
+    private int                         nGenerationsTribePhase      = 750;
+    private int                         nGenerationsCombinedPhase   = 500;
+    private int                         cpuBudget;
+    private int                         maxConcurrentWidths;
+    private boolean                     warmStart;
+    private float                       warmTribeFraction           = MultiTribePanel.DFLT_WARM_FRACTION;
+    private StoppingRules               stoppingRules               = StoppingRules.NONE;
+    private int                         targetScore                 = Integer.MAX_VALUE;
+    private volatile boolean            targetReached;
+    private SplittableRandom            random                      = new SplittableRandom();
+
+
+    ConsensusWidthSweep(UngappedSequenceDataset ungappedDataset,
+                        SequenceDataset clustalAlignment,
+                        int clustalScore, ConsensusWidthModel model)
+    {
+        this.ungappedDataset = ungappedDataset;
+        this.clustalAlignment = clustalAlignment;
+        this.clustalScore = clustalScore;
+        this.model = model;
+        cpuBudget = Runtime.getRuntime().availableProcessors();
+        maxConcurrentWidths = cpuBudget;
+    }
+
+
+    // Returns the fittest chromosome over all widths that ran. Its width is
+    // chromo.consensusWidth().
+    Chromosome sweep(Collection<Integer> widths)
+    {
+        targetReached = false;
+        ForkJoinPool pool = new ForkJoinPool(cpuBudget);
+        ExecutorService runners = Executors.newFixedThreadPool(Math.min(maxConcurrentWidths, widths.size()));
+        try
+        {
+            // Streams are split in width order, before any width runs, so
+            // results don't depend on completion order.
+            Map<Integer, SplittableRandom> randoms = new HashMap<Integer, SplittableRandom>();
+            for (int width: widths)
+                randoms.put(width, random.split());
+
+            // Without warm starts, every width can start at once, in the
+            // caller's order.
+            Map<Integer, CompletableFuture<Chromosome>> results =
+                new HashMap<Integer, CompletableFuture<Chromosome>>();
+            TreeSet<Integer> sorted = new TreeSet<Integer>(widths);
+            int anchor = nearest(sorted, clustalAlignment.widthOfWidestSequence());
+            for (int width: warmStart  ?  byDistanceFrom(sorted, anchor)  :  new LinkedHashSet<Integer>(widths))
+            {
+                SplittableRandom widthRandom = randoms.get(width);
+                Integer prev = (!warmStart  ||  width == anchor)  ?  null  :
+                               (width > anchor)  ?  sorted.lower(width)  :  sorted.higher(width);
+                results.put(width, (prev == null)  ?
+                    CompletableFuture.supplyAsync(() -> computeGAScoreForWidth(width, pool, widthRandom), runners)  :
+                    results.get(prev).thenApplyAsync(x -> computeGAScoreForWidth(width, pool, widthRandom), runners));
+            }
+
+            // Collect in width order. Skipped widths have no chromosome.
+            Chromosome fittest = null;
+            for (int width: widths)
+            {
+                Chromosome chromo = results.get(width).join();
+                if (chromo == null)
+                    continue;
+                if (fittest == null  ||  chromo.score > fittest.score)
+                    fittest = chromo;
+            }
+            return fittest;
+        }
+        catch (CompletionException x)
+        {
+            throw new IllegalStateException("Sweep failed", x.getCause());
+        }
+        finally
+        {
+            runners.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+
+    // Ties favor the smaller width.
+    private static int nearest(TreeSet<Integer> widths, int target)
+    {
+        Integer below = widths.floor(target);
+        Integer above = widths.ceiling(target);
+        if (below == null)
+            return above;
+        if (above == null  ||  target-below <= above-target)
+            return below;
+        return above;
+    }
+
+
+    // Every width comes after its neighbor toward from.
+    private static List<Integer> byDistanceFrom(TreeSet<Integer> widths, int from)
+    {
+        ArrayList<Integer> ret = new ArrayList<Integer>(widths);
+        ret.sort(Comparator.comparingInt(w -> Math.abs(w - from)));
+        return ret;
+    }
+
+
+    // Puts the result into the model before returning, so that warm starts
+    // of later widths can see it. Returns null if the width is skipped.
+    private Chromosome computeGAScoreForWidth(int width, ForkJoinPool pool,
+                                              SplittableRandom random)
+    {
+        if (targetReached)
+            return null;
+        MultiTribePanel multiTribe = new MultiTribePanel(null, nTribes);
+        multiTribe.setPool(pool);
+        multiTribe.setNGenerationsTribePhase(nGenerationsTribePhase);
+        multiTribe.setNGenerationsCombinedPhase(nGenerationsCombinedPhase);
+        multiTribe.setStoppingRules(stoppingRules);
+        if (warmStart)
+            multiTribe.setWarmStart(model);
+        multiTribe.setWarmTribeFraction(warmTribeFraction);
+        multiTribe.reset(ungappedDataset, clustalAlignment, clustalScore, width, random);
+        Chromosome fittest = multiTribe.computeGAScore();
+        model.putSolution(width, multiTribe.getTopChromosomes());
+        if (fittest.score >= targetScore)
+            targetReached = true;
+        return fittest;
+    }
+
+
+    void setNTribes(int n)                      { nTribes = n;                   }
+    void setNGenerationsTribePhase(int n)       { nGenerationsTribePhase = n;    }
+    void setNGenerationsCombinedPhase(int n)    { nGenerationsCombinedPhase = n; }
+    void setCpuBudget(int n)                    { cpuBudget = n;                 }
+    void setMaxConcurrentWidths(int n)          { maxConcurrentWidths = n;       }
+    void setWarmStart(boolean b)                { warmStart = b;                 }
+    void setWarmTribeFraction(float f)          { warmTribeFraction = f;         }
+    void setStoppingRules(StoppingRules rules)  { stoppingRules = rules;         }
+    void setRandom(SplittableRandom random)     { this.random = random;          }
+    void setTargetScore(int score)              { targetScore = score;           }
+    static void sop(Object x)                   { System.out.println(x);         }
+}
@@ -0,0 +1,220 @@
+package msg;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+//
+// Loads a FASTA file of protein sequences into an UngappedSequenceDataset.
+// Plain files are memory-mapped, in windows of at most MAP_WINDOW bytes so
+// files over 2 GB work; gzipped files (by magic number) are streamed through a
+// buffer. Either way the bytes go through 1 scanner that validates & encodes
+// each residue as it's seen, so no per-line Strings are built and the dataset
+// doesn't have to re-check the residues.
+//
+// A sequence's name is its header up to the first whitespace. Residues may be
+// upper or lower case; gaps ('-' and '.') and stop codons ('*') are dropped.
+//
+
+
+class FastaParser
+{
+    private final static String[]   SUFFIXES        = { ".fasta", ".fa" };     // maybe + ".gz"
+    private final static long       MAP_WINDOW      = 1L << 30;
+    private final static int        BUFFER_SIZE     = 1 << 16;
+    private final static byte       SKIP            = -1;       // in CODES[]
+    private final static byte       ILLEGAL         = -2;
+    private final static byte[]     CODES           = new byte[256];
+
+    static
+    {
+        Arrays.fill(CODES, ILLEGAL);
+        for (char ch='A'; ch<='Z'; ch++)
+        {
+            if (AlignmentScorer.isAa(ch))
+            {
+                CODES[ch] = ResidueAlignment.encode(ch);
+                CODES[Character.toLowerCase(ch)] = CODES[ch];
+            }
+        }
+        for (char ch: " \t\r\f-.*".toCharArray())
+            CODES[ch] = SKIP;
+    }
+
+    private File                    file;
+    private UngappedSequenceDataset dataset;
+    private byte[]                  header          = new byte[256];
+    private int                     headerLen;
+    private boolean                 inHeader;
+    private String                  name;           // of sequence being read
+    private byte[]                  codes           = new byte[1024];
+    private int                     nCodes;
+    private long                    lineNum         = 1;
+
+
+    private FastaParser(File file)
+    {
+        this.file = file;
+        dataset = new UngappedSequenceDataset(datasetName(file));
+    }
+
+
+    // True if f's name has a FASTA suffix, optionally followed by ".gz".
+    static boolean isFastaFile(File f)
+    {
+        return !datasetName(f).equals(stripSuffix(f.getName(), ".gz"));
+    }
+
+
+    // File name without ".gz" & the FASTA suffix.
+    static String datasetName(File f)
+    {
+        String name = stripSuffix(f.getName(), ".gz");
+        for (String suffix: SUFFIXES)
+            if (name.endsWith(suffix))
+                return stripSuffix(name, suffix);
+        return name;
+    }
+
+
+    private static String stripSuffix(String s, String suffix)
+    {
+        return s.endsWith(suffix)  ?  s.substring(0, s.length()-suffix.length())  :  s;
+    }
+
+
+    // Throws IOException if the file can't be read, has residues before the
+    // first header, has a residue that isn't an amino acid, or repeats a name.
+    static UngappedSequenceDataset parseFile(File f) throws IOException
+    {
+        return new FastaParser(f).parse();
+    }
+
+
+    private UngappedSequenceDataset parse() throws IOException
+    {
+        if (isGzipped())
+        {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE))
+            {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    scan(ByteBuffer.wrap(buf, 0, n));
+            }
+        }
+        else
+        {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                long size = channel.size();
+                for (long pos=0; pos<size; pos+=MAP_WINDOW)
+                    scan(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size-pos)));
+            }
+        }
+        endSequence();
+        if (dataset.isEmpty())
+            throw new IOException("No sequences in " + file.getName());
+        return dataset;
+    }
+
+
+    private boolean isGzipped() throws IOException
+    {
+        try (InputStream in = new FileInputStream(file))
+        {
+            return in.read() == 0x1f  &&  in.read() == 0x8b;
+        }
+    }
+
+
+    // State carries over from 1 call to the next, so records may span buffers.
+    private void scan(ByteBuffer buf) throws IOException
+    {
+        int limit = buf.limit();
+        for (int i=buf.position(); i<limit; i++)
+        {
+            byte b = buf.get(i);
+            if (b == '\n')
+            {
+                lineNum++;
+                if (inHeader)
+                    endHeader();
+            }
+            else if (inHeader)
+            {
+                if (headerLen == header.length)
+                    header = Arrays.copyOf(header, 2*headerLen);
+                header[headerLen++] = b;
+            }
+            else if (b == '>')
+            {
+                endSequence();
+                inHeader = true;
+                headerLen = 0;
+            }
+            else
+            {
+                byte code = CODES[b & 0xff];
+                if (code > 0)
+                {
+                    if (name == null)
+                        throw new IOException(where() + "residues before first header");
+                    if (nCodes == codes.length)
+                        codes = Arrays.copyOf(codes, 2*nCodes);
+                    codes[nCodes++] = code;
+                }
+                else if (code == ILLEGAL)
+                {
+                    throw new IOException(where() + "illegal char |" + (char)(b & 0xff) + "|");
+                }
+            }
+        }
+    }
+
+
+    // The name is the header up to the first space or control char. Bytes
+    // from 0x80 up are part of it.
+    private void endHeader() throws IOException
+    {
+        inHeader = false;
+        int end = 0;
+        while (end < headerLen  &&  (header[end] & 0xff) > ' ')
+            end++;
+        if (end == 0)
+            throw new IOException(where() + "no sequence name");
+        name = new String(header, 0, end, StandardCharsets.ISO_8859_1);
+        nCodes = 0;
+    }
+
+
+    private void endSequence() throws IOException
+    {
+        if (inHeader)
+            endHeader();
+        if (name == null)
+            return;
+        if (dataset.containsKey(name))
+            throw new IOException(where() + "duplicate sequence name " + name);
+        byte[] seqCodes = Arrays.copyOf(codes, nCodes);
+        byte[] chars = new byte[nCodes];
+        for (int i=0; i<nCodes; i++)
+            chars[i] = (byte)ResidueAlignment.decode(seqCodes[i]);
+        dataset.putEncoded(name, new String(chars, StandardCharsets.ISO_8859_1), seqCodes);
+        name = null;
+    }
+
+
+    private String where()
+    {
+        return file.getName() + ", line " + lineNum + ": ";
+    }
+
+
+    static void sop(Object x)          { System.out.println(x); }
+}
@@ -0,0 +1,42 @@
+package msg;
+
+
+//
+// Scores of whole chromosomes, shared by every population in the process, so
+// parallel tribes and sweep widths all benefit from each other's work. Keys
+// combine the dataset's content id, the consensus width, and the chromosome's
+// gene fingerprint. Different gapings share a key only if their 64-bit
+// fingerprints collide.
+//
+
+
+class FitnessCache
+{
+    private final static int            CAPACITY    = 1 << 16;
+    private final static ScoreCache     CACHE       = new ScoreCache(CAPACITY);
+
+
+    // Returns ScoreCache.MISS if the score isn't cached.
+    static int get(UngappedSequenceDataset dataset, int width, long fingerprint)
+    {
+        return CACHE.get(key(dataset, width, fingerprint));
+    }
+
+
+    static void put(UngappedSequenceDataset dataset, int width, long fingerprint, int score)
+    {
+        CACHE.put(key(dataset, width, fingerprint), score);
+    }
+
+
+    private static long key(UngappedSequenceDataset dataset, int width, long fingerprint)
+    {
+        return fingerprint + ScoreCache.mix((dataset.getContentId() << 32) ^ width);
+    }
+
+
+    static void clear()                 { CACHE.clear();            }
+    static long getHits()               { return CACHE.getHits();   }
+    static long getMisses()             { return CACHE.getMisses(); }
+    static double getHitRate()          { return CACHE.getHitRate(); }
+}
@@ -5,14 +5,29 @@ import java.util.*;
 
 class KickstartedPopulation extends Population
 {
-    private SequenceDataset         clustalSolution;
+    private List<SequenceDataset>   seeds;
 
 
     KickstartedPopulation(int nChromosomes, int breedingPoolSize,
                           int nGapsPerChromosome,
                           UngappedSequenceDataset ungappedDataset,
                           SequenceDataset clustalSolution,
-                          int consensusWidth, int historySize)
+                          int consensusWidth, int historySize,
+                          SplittableRandom random)
+    {
+        this(nChromosomes, breedingPoolSize, nGapsPerChromosome, ungappedDataset,
+             Collections.singletonList(clustalSolution), consensusWidth, historySize, random);
+    }
+
+
+    // Seeds are gapped alignments of any width, e.g. the Clustal alignment or
+    // the best solutions found at a nearby width.
+    KickstartedPopulation(int nChromosomes, int breedingPoolSize,
+                          int nGapsPerChromosome,
+                          UngappedSequenceDataset ungappedDataset,
+                          List<SequenceDataset> seeds,
+                          int consensusWidth, int historySize,
+                          SplittableRandom random)
     {
         // Construct.
         this.nChromosomes = nChromosomes;
@@ -20,22 +35,30 @@ class KickstartedPopulation extends Population
         this.ungappedDataset = ungappedDataset;
         this.consensusWidth = consensusWidth;
         this.history = new PopulationHistory(historySize);
-        this.clustalSolution = clustalSolution;
+        this.seeds = seeds;
+        this.random = random;
         this.chromosomes = new ArrayList<Chromosome>(nChromosomes);
 
-        // Build a chromosome to represent the ClustalW solution, adjusted
-        // to the desired consensus width.
-        assert clustalSolution.isUniformWidth();
-        int deltaWidth = consensusWidth - clustalSolution.widthOfWidestSequence();
-        SizeAdjustingChromosome starterChromo =
-            new SizeAdjustingChromosome(clustalSolution, deltaWidth, nGapsPerChromosome);
-        chromosomes.add(starterChromo);
+        // Build a chromosome to represent each seed, adjusted to the desired
+        // consensus width.
+        assert !seeds.isEmpty()  &&  seeds.size() <= nChromosomes;
+        ArrayList<Chromosome> starterChromos = new ArrayList<Chromosome>(seeds.size());
+        for (SequenceDataset seed: seeds)
+        {
+            assert seed.isUniformWidth();
+            int deltaWidth = consensusWidth - seed.widthOfWidestSequence();
+            SizeAdjustingChromosome starterChromo =
+                new SizeAdjustingChromosome(seed, deltaWidth, nGapsPerChromosome, random);
+            starterChromos.add(starterChromo);
+            chromosomes.add(starterChromo);
+        }
 
-        // Mutate the starter chromosome enough times to fill out the population.
-        while (chromosomes.size() < nChromosomes)
+        // Mutate the starter chromosomes, round robin, enough times to fill
+        // out the population.
+        for (int n=0; chromosomes.size() < nChromosomes; n++)
         {
-            Chromosome chromo = new Chromosome(starterChromo);
-            chromo.mutate((float)Math.random());
+            Chromosome chromo = new Chromosome(starterChromos.get(n % starterChromos.size()));
+            chromo.mutate((float)random.nextDouble(), random);
             chromo.evaluate(ungappedDataset, consensusWidth);
             chromosomes.add(chromo);
         }
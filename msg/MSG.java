@@ -1,16 +1,40 @@
 package msg;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MSG {
     public static void main(String[] args) throws Exception {
+        args = parseOptions(args);
         if (args.length == 0)
             throw new Exception("Need args: " + displayOptions());
+        loadDataset();
         switch (args[0]) {
             case "base":
                 printClustalScore();
@@ -27,80 +51,402 @@ public class MSG {
             case "score":
                 if (args.length == 1)
                     throw new Exception("Need alignment");
-                String alignmentString = args[1].replace("[", "");
-                alignmentString = alignmentString.replace("]", "");
-                String[] array = alignmentString.split(", ");
-                ArrayList<String> alignment = new ArrayList<String>();
-                Collections.addAll(alignment, array);
-                System.out.println(AlignmentScorer.scoreAlignment(alignment));
+                System.out.println(AlignmentScorer.scoreAlignment(parseAlignment(args[1])));
+                break;
+            case "sweep":
+                sweep(args.length == 1 ? Integer.MAX_VALUE : Integer.parseInt(args[1]));
+                break;
+            case "verify":
+                if (args.length < 3)
+                    throw new Exception("Need alignment and threshold");
+                System.out.println(verify(args[1], Integer.parseInt(args[2])));
+                break;
+            case "score-batch":
+                if (args.length == 1)
+                    scoreBatch(System.in, System.out);
+                else
+                    try (InputStream in = new FileInputStream(args[1])) {
+                        scoreBatch(in, System.out);
+                    }
+                break;
+            case "serve":
+                if (args.length == 1)
+                    serve(System.in, System.out);
+                else
+                    serve(Path.of(args[1]));
                 break;
             default:
                 throw new Exception("Wrong arg: " + args[0] + displayOptions());
         }
+        if (printStats)
+            System.err.println(cacheStats());
     }
 
     static int N_TRIBES = 10;
     static int N_GENS_TRIBE = 750;
     static int N_GENS_COMBINED = 500;
+    // Off, so every run goes the full generation counts above unless
+    // --stagnation makes them ceilings.
+    static final int DEFAULT_STAGNATION_WINDOW = 0;
     static final File SEQUENCES_DIRF = new File("data");
     static final File BALIBASE_DIRF;
-    static final File clwFile;
+    static File datasetFile;        // .clw, or FASTA; see loadDataset()
     static SequenceDataset clustalGappedDataset;
     static UngappedSequenceDataset ungappedDataset;
+    static final int SCORE_CACHE_SIZE = 4096;
+    static final int BATCH_LINES_PER_WORKER = 64;
     private static MultiTribePanel multiTribe;
-    private static int clustalScore;
+    private static int clustalScore = Integer.MIN_VALUE;
+    private static Stack<Integer> widths;
+    private static SplittableRandom random = new SplittableRandom();
+    private static boolean printStats;
+    private static boolean legacyCaps;
+    private static boolean warmStart;
+    private static float warmTribeFraction = MultiTribePanel.DFLT_WARM_FRACTION;
+    private static int stagnationWindow = DEFAULT_STAGNATION_WINDOW;
+    private static float minRelativeImprovement;
+    private static long timeBudgetMillis;
+    private static long evaluationBudget;
+    private static final Map<String, Integer> scoreCache = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > SCORE_CACHE_SIZE;
+        }
+    };
 
     static {
         BALIBASE_DIRF = new File(SEQUENCES_DIRF, "Balibase_bb3_release");
-        clwFile = new File(BALIBASE_DIRF, "BB11001.clw");
+        datasetFile = new File(BALIBASE_DIRF, "BB11001.clw");
+        multiTribe = new MultiTribePanel((MSGFrame) null, N_TRIBES);
+    }
 
-        try {
-            clustalGappedDataset = ClustalParser.parseFileToGapped(clwFile);
-        } catch (IOException var1) {
-            var1.printStackTrace();
+    // After parseOptions(), since --dataset & --legacy-caps change what's
+    // loaded. A FASTA file has no Clustal alignment, so its sequences padded
+    // to equal width stand in for one, as the baseline score & width.
+    static synchronized void loadDataset() throws IOException {
+        if (clustalGappedDataset != null)
+            return;
+        if (FastaParser.isFastaFile(datasetFile)) {
+            ungappedDataset = FastaParser.parseFile(datasetFile);
+            clustalGappedDataset = ungappedDataset.padToWidestSequence();
+            return;
         }
-
+        clustalGappedDataset = legacyCaps
+                ? ClustalParser.parseFileToGapped(datasetFile, ClustalParser.LEGACY_MAX_SEQUENCES,
+                        ClustalParser.LEGACY_MAX_SEQUENCE_LEN)
+                : ClustalParser.parseFileToGapped(datasetFile);
         ungappedDataset = clustalGappedDataset.removeGaps();
-        multiTribe = new MultiTribePanel((MSGFrame) null, N_TRIBES);
     }
 
 
+    // Consumes options (--dataset file, --seed N, --stats, --legacy-caps,
+    // --warm-start, --warm-tribes, and the stopping rules) from anywhere in
+    // args and returns the remaining args.
+    static String[] parseOptions(String[] args) throws Exception {
+        ArrayList<String> rest = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--dataset")) {
+                datasetFile = new File(optionValue(args, i++));
+            } else if (args[i].equals("--seed")) {
+                if (i + 1 == args.length)
+                    throw new Exception("Need seed");
+                random = new SplittableRandom(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--stats")) {
+                printStats = true;
+            } else if (args[i].equals("--legacy-caps")) {
+                legacyCaps = true;
+            } else if (args[i].equals("--warm-start")) {
+                warmStart = true;
+            } else if (args[i].equals("--warm-tribes")) {
+                warmTribeFraction = Float.parseFloat(optionValue(args, i++));
+                if (!(warmTribeFraction >= 0 && warmTribeFraction <= 1))
+                    throw new Exception("Warm tribe fraction must be 0 thru 1: " + warmTribeFraction);
+            } else if (args[i].equals("--stagnation")) {
+                stagnationWindow = Integer.parseInt(optionValue(args, i++));
+            } else if (args[i].equals("--min-improvement")) {
+                minRelativeImprovement = Float.parseFloat(optionValue(args, i++));
+            } else if (args[i].equals("--time-budget")) {
+                timeBudgetMillis = (long) (1000 * Double.parseDouble(optionValue(args, i++)));
+            } else if (args[i].equals("--eval-budget")) {
+                evaluationBudget = Long.parseLong(optionValue(args, i++));
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        return rest.toArray(new String[0]);
+    }
+
+    // The value that follows the option at args[i].
+    private static String optionValue(String[] args, int i) throws Exception {
+        if (i + 1 == args.length)
+            throw new Exception("Need value for " + args[i]);
+        return args[i + 1];
+    }
+
+    // Rules for every G.A. run, from the options.
+    static StoppingRules stoppingRules() {
+        return new StoppingRules(stagnationWindow, minRelativeImprovement,
+                timeBudgetMillis, evaluationBudget);
+    }
+
+    // Every G.A. run gets its own stream, so with --seed the n-th run of a
+    // process is repeatable.
+    private static synchronized SplittableRandom nextRandom() {
+        return random.split();
+    }
+
     private static void printClustalScore() {
-        clustalScore = AlignmentScorer.scoreAlignment(clustalGappedDataset.values());
-        System.out.println(clustalScore);
+        System.out.println(getClustalScore());
     }
 
     private static void printWidths() {
+        System.out.println(getWidths());
+    }
+
+    // Computed once per JVM; the dataset never changes after loadDataset().
+    static synchronized int getClustalScore() {
+        if (clustalScore == Integer.MIN_VALUE)
+            clustalScore = AlignmentScorer.scoreAlignment(clustalGappedDataset.values());
+        return clustalScore;
+    }
+
+    static synchronized Stack<Integer> getWidths() {
+        if (widths != null)
+            return widths;
         int wClustal = clustalGappedDataset.widthOfWidestSequence();
         Stack<Integer> stack = new Stack<Integer>();
         int min = Math.max(wClustal - 10, ungappedDataset.widthOfWidestSequence());
         stack.add(min);
         stack.add(wClustal + 10);
-        stack.add(wClustal);
+        if (wClustal != min)    // e.g. a padded FASTA baseline
+            stack.add(wClustal);
         for (int w = min + 1; w < wClustal + 10; w++)
             if (w != wClustal)
                 stack.add(w);
-        System.out.println(stack);
+        widths = stack;
+        return widths;
+    }
+
+    // Parses the "[A, B, ...]" form printed by align().
+    static ArrayList<String> parseAlignment(String s) {
+        String alignmentString = s.trim().replace("[", "");
+        alignmentString = alignmentString.replace("]", "");
+        String[] array = alignmentString.split(", ");
+        ArrayList<String> alignment = new ArrayList<String>();
+        Collections.addAll(alignment, array);
+        return alignment;
+    }
+
+    static boolean verify(String alignmentString, int threshold) {
+        ArrayList<String> rows = parseAlignment(alignmentString);
+        char[][] alignment = new char[rows.size()][];
+        for (int i = 0; i < alignment.length; i++)
+            alignment[i] = rows.get(i).toCharArray();
+        return AlignmentScorer.verify(alignment, ungappedDataset, threshold);
+    }
+
+    // Repeat proofs are common (every node re-checks every block), so scores
+    // are memoized by their alignment string.
+    static int cachedScore(String alignmentString) {
+        String key = alignmentString.trim();
+        synchronized (scoreCache) {
+            Integer cached = scoreCache.get(key);
+            if (cached != null)
+                return cached;
+        }
+        int score = AlignmentScorer.scoreAlignment(parseAlignment(key));
+        synchronized (scoreCache) {
+            scoreCache.put(key, score);
+        }
+        return score;
+    }
+
+    // Scores one alignment per input line on a pool of worker threads. Results
+    // are printed in input order; at most a few lines per worker are in flight,
+    // so arbitrarily long streams run in constant memory.
+    static void scoreBatch(InputStream in, PrintStream out) throws IOException, InterruptedException {
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        int maxInFlight = BATCH_LINES_PER_WORKER * nThreads;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayDeque<Future<Integer>> inFlight = new ArrayDeque<Future<Integer>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                ArrayList<String> alignment = parseAlignment(line);
+                inFlight.add(pool.submit(() -> AlignmentScorer.scoreAlignment(alignment)));
+                if (inFlight.size() >= maxInFlight)
+                    out.println(inFlight.remove().get());
+            }
+            while (!inFlight.isEmpty())
+                out.println(inFlight.remove().get());
+        } catch (ExecutionException x) {
+            throw new IllegalArgumentException("Can't score alignment", x.getCause());
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    // Listens on a Unix-domain socket. Each connection is served on its own
+    // thread, using the same line protocol as serve(InputStream, PrintStream).
+    static void serve(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        socketPath.toFile().deleteOnExit();
+        while (true) {
+            SocketChannel client = server.accept();
+            Thread t = new Thread(() -> {
+                try (client) {
+                    InputStream in = Channels.newInputStream(client);
+                    OutputStream out = Channels.newOutputStream(client);
+                    serve(in, new PrintStream(out, true, StandardCharsets.UTF_8));
+                } catch (IOException x) {
+                    x.printStackTrace();
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // Reads newline-delimited requests until EOF or "quit", and writes exactly
+    // one reply line per request. Failures are reported as "error <message>"
+    // so the client never loses its place in the stream.
+    static void serve(InputStream in, PrintStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if (line.equals("quit"))
+                break;
+            out.println(handleRequest(line));
+            out.flush();
+        }
+    }
+
+    private static String handleRequest(String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String arg = space < 0 ? "" : line.substring(space + 1).trim();
+        try {
+            switch (command) {
+                case "base":
+                    return String.valueOf(getClustalScore());
+                case "widths":
+                    return getWidths().toString();
+                case "score":
+                    if (arg.isEmpty())
+                        return "error Need alignment";
+                    return String.valueOf(cachedScore(arg));
+                case "verify": {
+                    // The alignment contains spaces, so the threshold follows the last one.
+                    int split = arg.lastIndexOf(' ');
+                    if (split < 0)
+                        return "error Need alignment and threshold";
+                    int threshold = Integer.parseInt(arg.substring(split + 1));
+                    return String.valueOf(verify(arg.substring(0, split), threshold));
+                }
+                case "align":
+                    if (arg.isEmpty())
+                        return "error Need width";
+                    return alignmentFor(Integer.parseInt(arg)).toString();
+                case "sweep":
+                    return sweepAlignment(arg.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(arg)).toString();
+                case "stats":
+                    return cacheStats();
+                default:
+                    return "error Wrong request: " + command;
+            }
+        } catch (RuntimeException x) {
+            return "error " + x;
+        }
     }
 
     public static void align(int width) {
+        System.out.print(alignmentFor(width));
+    }
+
+    // The shared MultiTribePanel isn't reentrant, so concurrent clients take turns.
+    static ArrayList<String> alignmentFor(int width) {
         ConsensusWidthPanel conWidthPan = new ConsensusWidthPanel();
         ConsensusWidthModel conWidthModel = conWidthPan.getModel();
-        multiTribe.setNTribes(N_TRIBES);
-        multiTribe.setNGenerationsTribePhase(N_GENS_TRIBE);
-        multiTribe.setNGenerationsCombinedPhase(N_GENS_COMBINED);
-        multiTribe.reset(ungappedDataset, clustalGappedDataset,
-                clustalScore, width);
-        Chromosome fittestChromoForWidth = multiTribe.computeGAScore();
+        Chromosome fittestChromoForWidth;
+        synchronized (multiTribe) {
+            multiTribe.setNTribes(N_TRIBES);
+            multiTribe.setNGenerationsTribePhase(N_GENS_TRIBE);
+            multiTribe.setNGenerationsCombinedPhase(N_GENS_COMBINED);
+            multiTribe.setStoppingRules(stoppingRules());
+            multiTribe.reset(ungappedDataset, clustalGappedDataset,
+                    getClustalScore(), width, nextRandom());
+            fittestChromoForWidth = multiTribe.computeGAScore();
+        }
         conWidthModel.put(width, fittestChromoForWidth.score);
-        ArrayList<String> msgAlignment = fittestChromoForWidth.toMSAStrings(ungappedDataset, width);
-        System.out.print(msgAlignment);
+        return fittestChromoForWidth.toMSAStrings(ungappedDataset, width);
+    }
+
+    // Prints sweepAlignment(), in the same format as align().
+    public static void sweep(int targetScore) {
+        System.out.print(sweepAlignment(targetScore));
+    }
+
+    // Runs the widths from getWidths() in one JVM and returns the best
+    // alignment found. Once a width's alignment scores at least targetScore,
+    // no more widths start.
+    static ArrayList<String> sweepAlignment(int targetScore) {
+        ConsensusWidthPanel conWidthPan = new ConsensusWidthPanel();
+        ConsensusWidthSweep sweep = new ConsensusWidthSweep(ungappedDataset,
+                clustalGappedDataset, getClustalScore(), conWidthPan.getModel());
+        sweep.setNTribes(N_TRIBES);
+        sweep.setNGenerationsTribePhase(N_GENS_TRIBE);
+        sweep.setNGenerationsCombinedPhase(N_GENS_COMBINED);
+        sweep.setRandom(nextRandom());
+        sweep.setWarmStart(warmStart);
+        sweep.setWarmTribeFraction(warmTribeFraction);
+        sweep.setStoppingRules(stoppingRules());
+        sweep.setTargetScore(targetScore);
+        Chromosome fittest = sweep.sweep(getWidths());
+        return fittest.toMSAStrings(ungappedDataset, fittest.consensusWidth());
+    }
+
+    // Hit rates of the G.A.'s fitness and column-score caches since startup.
+    static String cacheStats() {
+        return String.format("fitness cache: %d hits, %d misses, hit rate %.3f; " +
+                        "column cache: %d hits, %d misses, hit rate %.3f",
+                FitnessCache.getHits(), FitnessCache.getMisses(), FitnessCache.getHitRate(),
+                AlignmentScorer.getColumnCacheHits(), AlignmentScorer.getColumnCacheMisses(),
+                AlignmentScorer.getColumnCacheHitRate());
     }
 
     private static String displayOptions() {
-        return "\n(base) for the clustal score, " +
+        return "\n(--dataset file) anywhere, for a .clw alignment or a FASTA file (.fasta or .fa, maybe .gz) " +
+                "instead of BB11001; a FASTA file's baseline is its sequences padded to equal width" +
+                "\n(--seed n) anywhere, for repeatable align and sweep runs" +
+                "\n(--stats) anywhere, to print cache hit rates to stderr when done" +
+                "\n(--legacy-caps) anywhere, to load only the first 8 sequences & 50 columns of a .clw file" +
+                "\n(--warm-start) anywhere, for sweeps that seed each width from its neighbor's best" +
+                "\n(--warm-tribes fraction) anywhere, for the fraction of tribes that warm starts seed " +
+                "(default: " + MultiTribePanel.DFLT_WARM_FRACTION + ")" +
+                "\n(--stagnation gens) anywhere, to retire a tribe, or end the merged phase, after gens " +
+                "generations without progress (default: " + DEFAULT_STAGNATION_WINDOW + "; 0 runs every generation)" +
+                "\n(--min-improvement fraction) anywhere, for the rise in best score that counts as progress " +
+                "(default: any)" +
+                "\n(--time-budget secs) anywhere, to end each width's run after secs seconds" +
+                "\n(--eval-budget n) anywhere, to end each width's run after n evaluations" +
+                "\n(base) for the clustal score, " +
                 "\n(widths) for get width, " +
                 "\n(align width) for the alignment based on the width" +
-                "\n(score width) for the score of the alignment based on the width";
+                "\n(score width) for the score of the alignment based on the width" +
+                "\n(sweep [target]) for the best alignment over all widths, or over the widths run " +
+                "until one scores at least target" +
+                "\n(verify alignment threshold) for whether the alignment gaps the dataset " +
+                "and scores at least threshold" +
+                "\n(score-batch [file]) for the scores of alignments, one per line, from a file or stdin" +
+                "\n(serve [socket]) to answer base/widths/score/verify/align/sweep/stats requests, one per line, " +
+                "on stdin or a Unix-domain socket";
     }
 }
\ No newline at end of file
@@ -34,12 +34,14 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
     private SequenceDataset         clustalGappedDataset;
     private UngappedSequenceDataset ungappedDataset;
     private int                     clustalScore;
+    private String                  baselineName;       // of clustalGappedDataset
     private MSGFrame                outerThis;
     private JComboBox               tribeGenerationsCombo;
     private JComboBox               combinedGenerationsCombo;
     private JComboBox               nTribesCombo;
     private ConsensusDialog         consensusDia;
     private JCheckBox               darkBGCbox;
+    private JCheckBox               warmStartCbox;
 
 
     public MSGFrame()
@@ -74,6 +76,8 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
         darkBGCbox = new JCheckBox("Dark bgnd", true);
         darkBGCbox.addItemListener(this);
         controls.add(darkBGCbox);
+        warmStartCbox = new JCheckBox("Warm start", false);
+        controls.add(warmStartCbox);
         controlsAndConWidth.add(controls);
         conWidthPan = new ConsensusWidthPanel();
         controlsAndConWidth.add(conWidthPan, BorderLayout.SOUTH);
@@ -137,16 +141,17 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
             File dirf = dirfs[i];
 			assert dirf.exists() : "No such directory: " + dirf.getAbsolutePath();
             String[] contents = dirf.list();
-            Set<String> clwSorter = new TreeSet<String>();
+            Map<String, File> titleToFile = new TreeMap<String, File>();
             for (String kid: contents)
-                if (kid.endsWith(".clw"))
-                    clwSorter.add(kid);
-            for (String kid: clwSorter)
             {
-                String title = kid.substring(0, kid.length()-4);
                 File kidFile = new File(dirf, kid);
-                subMenu.add(new DatasetMenuItem(title, kidFile));
+                if (kid.endsWith(".clw"))
+                    titleToFile.put(kid.substring(0, kid.length()-4), kidFile);
+                else if (FastaParser.isFastaFile(kidFile))
+                    titleToFile.put(FastaParser.datasetName(kidFile) + " (FASTA)", kidFile);
             }
+            for (Map.Entry<String, File> entry: titleToFile.entrySet())
+                subMenu.add(new DatasetMenuItem(entry.getKey(), entry.getValue()));
             openMenu.add(subMenu);
         }
         menu.add(openMenu);
@@ -178,8 +183,19 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
             try
             {
                 assert file.exists();
-                clustalGappedDataset = ClustalParser.parseFileToGapped(file);
-                ungappedDataset = clustalGappedDataset.removeGaps();
+                if (FastaParser.isFastaFile(file))
+                {
+                    // No Clustal alignment, so the baseline is the padded input.
+                    ungappedDataset = FastaParser.parseFile(file);
+                    clustalGappedDataset = ungappedDataset.padToWidestSequence();
+                    baselineName = "Padded Input";
+                }
+                else
+                {
+                    clustalGappedDataset = ClustalParser.parseFileToGapped(file);
+                    ungappedDataset = clustalGappedDataset.removeGaps();
+                    baselineName = "Clustal-W";
+                }
                 clustalScore = AlignmentScorer.scoreAlignment(clustalGappedDataset.values());
                 conWidthPan.resetForNewDataSet();
                 conWidthPan.setClustalScore(clustalScore);
@@ -251,7 +267,8 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
         int min = Math.max(wClustal-10, ungappedDataset.widthOfWidestSequence());
         stack.add(min);
         stack.add(wClustal + 10);
-        stack.add(wClustal);
+        if (wClustal != min)    // e.g. a padded FASTA baseline
+            stack.add(wClustal);
         for (int w=min+1; w<wClustal+10; w++)
             if (w != wClustal)
                 stack.add(w);
@@ -274,8 +291,8 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
             int fittestScore = Integer.MIN_VALUE;
             for (int width: widths)
             {
-                Chromosome fittestChromoForWidth = computeGAScoreForWidth(width);
-                conWidthModel.put(width, fittestChromoForWidth.score);
+                Chromosome fittestChromoForWidth = computeGAScoreForWidth(width, conWidthModel);
+                conWidthModel.putSolution(width, multiTribePan.getTopChromosomes());
                 if (fittestChromoForWidth.score > fittestScore)
                 {
                     fittestScore = fittestChromoForWidth.score;
@@ -299,14 +316,17 @@ class MSGFrame extends JFrame implements ActionListener, ItemListener
             sop("\nMSG Alignment (score = " + fittestScore + "):");
             for (String s: msgAlignment)
                 sop(s);
-            sop("\nClustal-W Alignment (score = " + clustalScore + "):");
+            sop("\n" + baselineName + " Alignment (score = " + clustalScore + "):");
             for (String s: clustalAlignment)
                 sop(s);
         }
 
-        private Chromosome computeGAScoreForWidth(int consensusWidth)
+        // If warm start is checked, some tribes are seeded from the nearest
+        // width already in conWidthModel.
+        private Chromosome computeGAScoreForWidth(int consensusWidth, ConsensusWidthModel conWidthModel)
         {
             // Reset the multi-tribe panel for next consensus width.
+            multiTribePan.setWarmStart(warmStartCbox.isSelected()  ?  conWidthModel  :  null);
             multiTribePan.setNTribes(getNTribes());
             multiTribePan.setNGenerationsTribePhase(getNGensTribe());
             multiTribePan.setNGenerationsCombinedPhase(getNGensCombined());
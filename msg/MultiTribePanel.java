@@ -3,6 +3,8 @@ package msg;
 import java.awt.*;
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.List;
 
 class MultiTribePanel extends JPanel
 {
@@ -23,6 +25,11 @@ class MultiTribePanel extends JPanel
     private final static Font       BIG_FONT            = new Font("Serif", Font.PLAIN, 32);
     private final static int        TEXT_V_SPACING      =   30;
     private final static int        SCORE_PLACEHOLDER   = Integer.MIN_VALUE;
+    final static int                N_WARM_SEEDS        =    5;     // top chromosomes kept per width
+    final static float              DFLT_WARM_FRACTION  = 0.25f;    // of ordinary tribes, warm-started
+    private final static int        ROUND_LENGTH        =   50;     // tribe gens between convergence checks
+    private final static ForkJoinPool   SHARED_POOL     =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     private MSGFrame                frame;
     private Phase                   phase;
@@ -37,6 +44,14 @@ class MultiTribePanel extends JPanel
     private int                     nGenerationsTribePhase;
     private int                     nGenerationsCombinedPhase;
     private boolean                 darkBG;
+    private ForkJoinPool            pool = SHARED_POOL;
+    private ConsensusWidthModel     warmStartModel;                 // null => cold start
+    private float                   warmTribeFraction   = DFLT_WARM_FRACTION;
+    private StoppingRules           stoppingRules       = StoppingRules.NONE;
+    private long                    deadline;                       // System.nanoTime(), if rules have one
+    private int                     nTribeGenerationsRun;
+    private int                     nUnspentTribeGenerations;
+    private long                    nTribeEvaluations;              // by tribes that have merged
 
 
     private enum Phase { PRIMORDIAL, TRIBES, MERGED, DONE }
@@ -51,9 +66,22 @@ class MultiTribePanel extends JPanel
     }
 
 
+    // Unseeded, so every run differs.
+    void reset(UngappedSequenceDataset seqNameToUngapped,
+               SequenceDataset clustalAlignment,
+               int clustalScore, int consensusWidth)
+    {
+        reset(seqNameToUngapped, clustalAlignment, clustalScore, consensusWidth,
+              new SplittableRandom());
+    }
+
+
+    // Each tribe gets its own stream split from random, so a run is
+    // repeatable from random's seed even though tribes evolve concurrently.
     synchronized void reset(UngappedSequenceDataset seqNameToUngapped,
                             SequenceDataset clustalAlignment,
-                            int clustalScore, int consensusWidth)
+                            int clustalScore, int consensusWidth,
+                            SplittableRandom random)
     {
         assert phase == Phase.PRIMORDIAL  ||  phase == Phase.DONE;
         phase = Phase.TRIBES;
@@ -62,18 +90,50 @@ class MultiTribePanel extends JPanel
         this.clustalScore = clustalScore;
         this.consensusWidth = consensusWidth;
 
-        // All but the last tribe are ordinary.
+        // In warm-start mode, if a width has been solved, the last ordinary
+        // tribes are seeded from the top chromosomes of the nearest one. Each
+        // leads with a different seed, so seeds that are nearly as good get
+        // their own tribe. At least 1 tribe stays random, so the merged
+        // tribes aren't all descended from the neighbor's solution.
+        List<SequenceDataset> warmSeeds = warmSeeds(seqNameToUngapped);
+        int nWarmTribes = 0;
+        if (warmSeeds != null)
+        {
+            nWarmTribes = Math.round(warmTribeFraction * (nTribes-1));
+            nWarmTribes = Math.max(0, Math.min(nWarmTribes, nTribes-2));
+        }
+
+        // All but the last tribe are ordinary or warm-started.
         tribes = new Population[nTribes];
         mergedTribes = null;
+        int nGapsPerChromosome = consensusWidth*seqNameToUngapped.size() - seqNameToUngapped.nCharsOverall();
         for (int i=0; i<nTribes-1; i++)
         {
-            tribes[i] = new Population(TRIBE_SIZE,
-                                       BREEDING_POOL_SIZE,
-                                       seqNameToUngapped,
-                                       consensusWidth,
-                                       GRAPH_W);
+            int warmIndex = i - (nTribes-1-nWarmTribes);
+            if (warmIndex < 0)
+            {
+                tribes[i] = new Population(TRIBE_SIZE,
+                                           BREEDING_POOL_SIZE,
+                                           seqNameToUngapped,
+                                           consensusWidth,
+                                           GRAPH_W,
+                                           random.split());
+            }
+            else
+            {
+                // Each warm tribe leads with a different seed.
+                ArrayList<SequenceDataset> seeds = new ArrayList<SequenceDataset>(warmSeeds);
+                Collections.rotate(seeds, -warmIndex);
+                tribes[i] = new KickstartedPopulation(TRIBE_SIZE,
+                                                      BREEDING_POOL_SIZE,
+                                                      nGapsPerChromosome,
+                                                      seqNameToUngapped,
+                                                      seeds,
+                                                      consensusWidth,
+                                                      GRAPH_W,
+                                                      random.split());
+            }
         }
-        int nGapsPerChromosome = tribes[0].getChromosomeLength();
 
         // Build 1 "kickstarted" population, initialized from the Clustal
         // alignment. If the desired width is << the clustal width, a kickstarted
@@ -85,7 +145,11 @@ class MultiTribePanel extends JPanel
                                               seqNameToUngapped,
                                               clustalAlignment,
                                               consensusWidth,
-                                              GRAPH_W);
+                                              GRAPH_W,
+                                              random.split());
+
+        for (Population tribe: tribes)
+            tribe.setStoppingRules(stoppingRules);
 
         if (tribeColors == null)
         {
@@ -104,6 +168,21 @@ class MultiTribePanel extends JPanel
     }
 
 
+    // Returns null unless warm-starting and some width has been solved.
+    private List<SequenceDataset> warmSeeds(UngappedSequenceDataset ungapped)
+    {
+        if (warmStartModel == null)
+            return null;
+        List<Chromosome> solution = warmStartModel.nearestSolution(consensusWidth);
+        if (solution == null)
+            return null;
+        ArrayList<SequenceDataset> ret = new ArrayList<SequenceDataset>(solution.size());
+        for (Chromosome chromo: solution)
+            ret.add(chromo.toSequenceDataset(ungapped, chromo.consensusWidth()));
+        return ret;
+    }
+
+
     public Dimension getPreferredSize()
     {
         return new Dimension(PREF_W, PREF_H);
@@ -277,7 +356,7 @@ class MultiTribePanel extends JPanel
                 case TRIBES:
                     return tribes[0].getHistory().size();
                 default:
-                    return nGenerationsTribePhase + mergedTribes.getHistory().size();
+                    return nTribeGenerationsRun + mergedTribes.getNGenerations();
             }
         }
         catch (NullPointerException x)
@@ -319,18 +398,89 @@ class MultiTribePanel extends JPanel
     }
 
 
+    // The phase's budget is nGenerationsTribePhase generations per tribe.
+    // Tribes run in rounds of up to ROUND_LENGTH generations. After each
+    // round, tribes that have stagnated drop out, and the tribes still
+    // improving share the generations they didn't use. The phase ends when
+    // every tribe has stagnated or the budget is spent. Convergence is only
+    // checked between rounds, and each tribe has its own random stream, so
+    // results don't depend on scheduling unless the wall clock runs out.
     private void computeMultiTribePhase()
     {
         assert phase == Phase.TRIBES;       // Set by reset()
 
-        for (int i=0; i<nGenerationsTribePhase; i++)
+        int budget = nTribes * nGenerationsTribePhase;
+        int spent = 0;
+        ArrayList<Population> active = new ArrayList<Population>(Arrays.asList(tribes));
+        while (!active.isEmpty()  &&  !isOutOfTime())
         {
-            for (Population tribe: tribes)
-                tribe.step1Generation();    // records best score into history
-            repaint();
-            Thread.yield();
+            int share = (budget - spent) / active.size();
+            long evaluationsPerRound = (long)active.size() * active.get(0).evaluationsPerGeneration();
+            int nGens = (int)Math.min(Math.min(ROUND_LENGTH, share), evaluationsLeft() / evaluationsPerRound);
+            if (nGens == 0)
+                break;
+            stepTribes(active, nGens);
+            spent += nGens * active.size();
+            active.removeIf(Population::hasStagnated);
+        }
+
+        nUnspentTribeGenerations = budget - spent;
+        nTribeGenerationsRun = 0;
+        for (Population tribe: tribes)
+            nTribeGenerationsRun = Math.max(nTribeGenerationsRun, tribe.getNGenerations());
+    }
+
+
+    // Tribes don't interact until they merge, so each one evolves on its
+    // own worker. Joining them all is the only barrier.
+    private void stepTribes(List<Population> active, int nGens)
+    {
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(active.size());
+        for (Population tribe: active)
+        {
+            tasks.add(() ->
+            {
+                for (int i=0; i<nGens  &&  !isOutOfTime(); i++)
+                {
+                    tribe.step1Generation();    // records best score into history
+                    repaint();
+                    Thread.yield();
+                }
+                return null;
+            });
+        }
+        for (Future<Void> done: pool.invokeAll(tasks))
+        {
+            try
+            {
+                done.get();
+            }
+            catch (InterruptedException | ExecutionException x)
+            {
+                throw new IllegalStateException("Tribe failed to evolve", x);
+            }
         }
-        nGenerationsTribePhase = tribes[0].getHistory().size();
+    }
+
+
+    private boolean isOutOfTime()
+    {
+        return stoppingRules.hasWallClockLimit()  &&  System.nanoTime() - deadline >= 0;
+    }
+
+
+    // Left in the whole run's evaluation budget.
+    private long evaluationsLeft()
+    {
+        if (!stoppingRules.hasEvaluationLimit())
+            return Long.MAX_VALUE;
+        long spent = 0;
+        if (tribes != null)
+            for (Population tribe: tribes)
+                spent += tribe.getNEvaluations();
+        if (mergedTribes != null)
+            spent += mergedTribes.getNEvaluations() + nTribeEvaluations;
+        return Math.max(0, stoppingRules.maxEvaluations - spent);
     }
 
 
@@ -341,17 +491,32 @@ class MultiTribePanel extends JPanel
         // history; this will position its entries to the right of the tribes
         // when the graph is drawn.
         assert tribes != null  :  "Null tribes[] in computeMergedPhase().";
+        nTribeEvaluations = 0;
+        for (Population tribe: tribes)
+            nTribeEvaluations += tribe.getNEvaluations();
         mergedTribes = new Population(tribes);
+        mergedTribes.setBreedingPool(pool);     // only 1 population, so parallelize within it
+        mergedTribes.setStoppingRules(stoppingRules);
         tribes = null;
         phase = Phase.MERGED;
 
-        // Step the merged population.
-        for (int i=0; i<nGenerationsCombinedPhase; i++)
+        // Step the merged population. This runs in the pool too, so that the
+        // pool's parallelism bounds all of the G.A.'s work. Generations the
+        // tribes didn't use are added to the budget; a merged generation
+        // costs the same as a tribe generation.
+        int budget = nGenerationsCombinedPhase + nUnspentTribeGenerations;
+        pool.invoke(ForkJoinTask.adapt(() ->
         {
-            mergedTribes.step1Generation();    // records best score into history
-            repaint();
-            Thread.yield();
-        }
+            for (int i=0; i<budget; i++)
+            {
+                if (mergedTribes.hasStagnated()  ||  isOutOfTime()  ||
+                    evaluationsLeft() < mergedTribes.evaluationsPerGeneration())
+                        break;
+                mergedTribes.step1Generation();    // records best score into history
+                repaint();
+                Thread.yield();
+            }
+        }));
 
         phase = Phase.DONE;
         repaint();
@@ -359,14 +524,53 @@ class MultiTribePanel extends JPanel
 
 
     // Must be called from a safe thread. Returns chromosome with best score.
-    // The score is stored in the chromosome.
+    // The score is stored in the chromosome. It's a copy, since the
+    // population's instances are recycled.
     Chromosome computeGAScore()
     {
         assert phase == Phase.TRIBES;
         assert consensusWidth > 0;
+        deadline = System.nanoTime() + stoppingRules.wallClockMillis*1000000;
         computeMultiTribePhase();
         computeMergedPhase();
-        return mergedTribes.getFittest();
+        return new Chromosome(mergedTribes.getFittest());
+    }
+
+
+    // Distinct, fittest first, and copies. Call after computeGAScore().
+    List<Chromosome> getTopChromosomes()
+    {
+        assert phase == Phase.DONE;
+        ArrayList<Chromosome> ret = new ArrayList<Chromosome>(N_WARM_SEEDS);
+        for (Chromosome chromo: mergedTribes.topNDistinctChromosomes(N_WARM_SEEDS))
+            ret.add(new Chromosome(chromo));
+        return ret;
+    }
+
+
+    // Takes effect at the next reset(). The wall clock & evaluation budgets
+    // apply to each computeGAScore() as a whole.
+    void setStoppingRules(StoppingRules rules)
+    {
+        stoppingRules = rules;
+    }
+
+
+    // In warm-start mode, reset() seeds some tribes from the nearest width
+    // already solved in model; see ConsensusWidthModel.putSolution(). Null
+    // turns warm starts off.
+    void setWarmStart(ConsensusWidthModel model)
+    {
+        warmStartModel = model;
+    }
+
+
+    // Fraction of the ordinary tribes that warm starts seed, rounded to the
+    // nearest count; takes effect at the next reset().
+    void setWarmTribeFraction(float fraction)
+    {
+        assert fraction >= 0  &&  fraction <= 1;
+        warmTribeFraction = fraction;
     }
 
 
@@ -376,4 +580,5 @@ class MultiTribePanel extends JPanel
     void setNGenerationsTribePhase(int n)       { nGenerationsTribePhase = n;    }
     void setNGenerationsCombinedPhase(int n)    { nGenerationsCombinedPhase = n; }
     void setDarkBG(boolean b)                   { darkBG = b;                    }
+    void setPool(ForkJoinPool pool)             { this.pool = pool;              }
 }
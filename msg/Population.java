@@ -1,6 +1,7 @@
 package msg;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 
 class Population
@@ -9,6 +10,7 @@ class Population
     private final static float          DFLT_MUTATION_RATE      = .20f;
     private final static int            ACTIVITY_CHECKIN_PERIOD = 20;
     private final static float          OPERATOR_SPEEDUP        = 1.1f;
+    private final static int            PAIRS_PER_BREEDING_TASK = 4;
 
     protected int                       nChromosomes;
     protected ArrayList<Chromosome>     chromosomes;
@@ -18,16 +20,56 @@ class Population
     protected PopulationHistory         history;
     private float                       mutationRate;
     private float                       crossoverRate;
+    protected SplittableRandom          random;
+    private ForkJoinPool                breedingPool;       // null => breed serially
+
+    // Convergence tracking; see StoppingRules. Progress is the last time the
+    // best score rose enough to count.
+    private StoppingRules               stoppingRules           = StoppingRules.NONE;
+    private int                         nGenerations;       // stepped so far
+    private long                        nEvaluations;       // bred & evaluated so far
+    private int                         progressScore;      // see setStoppingRules()
+    private int                         progressGeneration;
+
+    // Packed => each generation's genes are the rows of 1 gene matrix, and
+    // its chromosomes are views of the rows (see Chromosome), so breeding
+    // walks memory in order and members carry no gene arrays of their own.
+    private boolean                     packedGenes             = true;
+
+    // Generations are double-buffered: the next generation is written into
+    // spares[], which holds the instances of the generation before this one,
+    // so steady-state steps allocate no chromosomes or gene arrays. The other
+    // arrays are per-step scratch, reused from step to step.
+    private Chromosome[]                spares;
+    private Chromosome[]                retired;
+    private Chromosome[]                parents;            // this generation, best first
+    private int[]                       breederIndices;
+    private SplittableRandom[]          pairRandoms;
+    private List<Callable<Void>>        breedingTasks;      // for breedingPool
+
+    // Scores parallel to chromosomes & spares. Breeding fills spareScores[],
+    // so ranking reads 1 array instead of every member.
+    private int[]                       scores;
+    private int[]                       spareScores;
+    private boolean                     scoresAreCurrent;
+
+    // Ranking of the current generation, computed at most once per generation.
+    private long[]                      rankKeys;
+    private Chromosome[]                ranked;             // best first
+    private boolean                     rankingIsCurrent;
 
 
     Population() { }
 
 
-    // Randomizes. Default crossover & mutation rates.
+    // Randomizes from random, which then belongs to this population. Default
+    // crossover & mutation rates.
     Population(int nChromosomes, int breedingPoolSize,
                UngappedSequenceDataset ungappedDataset,
-               int consensusWidth, int historySize)
+               int consensusWidth, int historySize,
+               SplittableRandom random)
     {
+        this.random = random;
         this.nChromosomes = nChromosomes;
         this.breedingPoolSize = breedingPoolSize;
         this.ungappedDataset = ungappedDataset;
@@ -37,12 +79,10 @@ class Population
         history = new PopulationHistory(historySize);
 
         // Build, evaluate, and add randomized chromosomes.
-        int nSeqs = ungappedDataset.size();
-        int nGapsTotal = consensusWidth*nSeqs - ungappedDataset.nCharsOverall();
-        for (int i=0; i<nChromosomes; i++)
+        Chromosome template = new Chromosome(ungappedDataset, consensusWidth);
+        for (Chromosome chr: newGeneration(template, nChromosomes))
         {
-            Chromosome chr = new Chromosome(nGapsTotal, consensusWidth-1);
-            chr.randomize();
+            chr.randomize(random);
             chr.evaluate(ungappedDataset, consensusWidth);
             chromosomes.add(chr);
         }
@@ -66,27 +106,37 @@ class Population
         this.ungappedDataset = tribes[0].ungappedDataset;
         this.consensusWidth = tribes[0].consensusWidth;
         this.breedingPoolSize = tribes[0].breedingPoolSize;
+        this.random = tribes[0].random.split();
 
         // Collect top members of each tribe. Cache single best member in each
         // tribe, in case we need filler.
         int nRepresentativesPerTribe = nChromosomes / tribes.length;
-        chromosomes = new ArrayList<Chromosome>(nChromosomes);
+        ArrayList<Chromosome> members = new ArrayList<Chromosome>(nChromosomes);
         Vector<Chromosome> filler = new Vector<Chromosome>();
         for (Population tribe: tribes)
         {
             List<Chromosome> topN = tribe.topNChromosomes(nRepresentativesPerTribe);
-            chromosomes.addAll(topN);
+            members.addAll(topN);
             filler.add(topN.get(0));
         }
 
         // Might need a few more chromosomes, due to rounding error in nRepresentativesPerTribe.
         int fillerIndex = 0;
-        while (chromosomes.size() < nChromosomes)
+        while (members.size() < nChromosomes)
         {
-            chromosomes.add(filler.get(fillerIndex));
+            members.add(filler.get(fillerIndex));
             fillerIndex = (fillerIndex + 1) % filler.size();
         }
 
+        // Members are copies, since each instance is recycled independently.
+        chromosomes = new ArrayList<Chromosome>(nChromosomes);
+        Chromosome[] copies = newGeneration(members.get(0), members.size());
+        for (int i=0; i<copies.length; i++)
+        {
+            copies[i].copyFrom(members.get(i));
+            chromosomes.add(copies[i]);
+        }
+
         // Record best score into history.
         history = new PopulationHistory(tribes[0].getHistory().getMaxSize());
         history.add(getFittest().score);
@@ -102,14 +152,57 @@ class Population
     }
 
 
+    // n copies of template: views of the rows of 1 new gene matrix if genes
+    // are packed, otherwise standalone.
+    private Chromosome[] newGeneration(Chromosome template, int n)
+    {
+        Chromosome[] ret = new Chromosome[n];
+        int nGenes = template.length();
+        char[] matrix = packedGenes  ?  new char[Math.multiplyExact(n, nGenes)]  :  null;
+        for (int i=0; i<n; i++)
+            ret[i] = packedGenes  ?  new Chromosome(template, matrix, i*nGenes)
+                                  :  new Chromosome(template);
+        return ret;
+    }
+
+
+    // Returns the current generation in descending fitness order. Equal scores
+    // keep their order in chromosomes. The array is cached until the
+    // generation changes, so callers mustn't modify it.
     protected Chromosome[] sortDescending()
     {
-        TreeSet<Chromosome> ascending = new TreeSet<Chromosome>(chromosomes);
-        Chromosome[] descending = new Chromosome[ascending.size()];
-        int n = descending.length - 1;
-        for (Chromosome chro: ascending)
-            descending[n--] = chro;
-        return descending;
+        if (rankingIsCurrent)
+            return ranked;
+
+        int n = chromosomes.size();
+        if (!scoresAreCurrent)
+        {
+            if (scores == null  ||  scores.length != n)
+                scores = new int[n];
+            for (int i=0; i<n; i++)
+                scores[i] = chromosomes.get(i).score;
+            scoresAreCurrent = true;
+        }
+        if (ranked == null  ||  ranked.length != n)
+        {
+            rankKeys = new long[n];
+            ranked = new Chromosome[n];
+        }
+
+        // Score in the high half of the key, complemented index in the low
+        // half, so ascending keys are ascending scores with later members first.
+        assert scores.length == n;
+        for (int i=0; i<n; i++)
+        {
+            assert scores[i] != Integer.MIN_VALUE : "Sorted before score was set.";
+            rankKeys[i] = ((long)scores[i] << 32)  |  (~i & 0xffffffffL);
+        }
+        Arrays.sort(rankKeys);
+        for (int i=0; i<n; i++)
+            ranked[n-1-i] = chromosomes.get(~(int)rankKeys[i]);
+
+        rankingIsCurrent = true;
+        return ranked;
     }
 
 
@@ -117,48 +210,74 @@ class Population
     void step1Generation()
     {
         // Collect chromosomes in descending fitness order (best is at [0]).
-        Chromosome[] sortedDescending = sortDescending();
-        assert sortedDescending.length == chromosomes.size() :
-               "Unexpected length of sorted = " + sortedDescending.length +
+        parents = sortDescending();
+        assert parents.length == chromosomes.size() :
+               "Unexpected length of sorted = " + parents.length +
                " != chromosomes.size() = " + chromosomes.size();
 
-        // Clear out main collection (safe, because all members are in sortedDescending[]).
-        chromosomes.clear();
+        // Each mating pair gets its own random stream, split off in order, so
+        // the next generation doesn't depend on how pairs are spread over
+        // threads.
+        int nPairs = (nChromosomes - 1) / 2;        // after 2 elites
+        allocateBuffers(nPairs);
+        RouletteWheel.spin(breederIndices, random);
+        for (int i=0; i<nPairs; i++)
+            pairRandoms[i] = random.split();
 
         // Elitism: best 2 members bypass breeding pool and go directly into
         // next generation. They may also breed if the wheel choses them.
-        chromosomes.add(sortedDescending[0]);
-        chromosomes.add(sortedDescending[1]);
-
-        // Spin roulette wheel to determine indices of mating pairs.
-        int[] randomizedBreederIndices = RouletteWheel.spin(nChromosomes);
+        spares[0].copyFrom(parents[0]);
+        spares[1].copyFrom(parents[1]);
+        spareScores[0] = spares[0].score;
+        spareScores[1] = spares[1].score;
 
-        // Breed.
-        int n = 0;
-        while (chromosomes.size() < nChromosomes)
+        // Breed into spares[2...].
+        if (breedingPool == null)
         {
-            // Get parents.
-            int maIndex = randomizedBreederIndices[n++];
-            Chromosome ma = sortedDescending[maIndex];
-            int paIndex = randomizedBreederIndices[n++];
-            Chromosome pa = sortedDescending[paIndex];
-            // Crossover.
-            Chromosome[] kids = Chromosome.crossover(ma, pa, crossoverRate);
-            // Mutate.
-            kids[0].mutate(mutationRate);
-            kids[1].mutate(mutationRate);
-            // Evaluate.
-            kids[0].evaluate(ungappedDataset, consensusWidth);
-            kids[1].evaluate(ungappedDataset, consensusWidth);
-            // Collect.
-            chromosomes.add(kids[0]);
-            chromosomes.add(kids[1]);
+            breed(0, nPairs);
         }
+        else
+        {
+            for (Future<Void> done: breedingPool.invokeAll(breedingTasks))
+            {
+                try
+                {
+                    done.get();
+                }
+                catch (InterruptedException | ExecutionException x)
+                {
+                    throw new IllegalStateException("Breeding failed", x);
+                }
+            }
+        }
+
+        // Swap buffers. This generation's instances become the next spares.
+        for (int i=0; i<retired.length; i++)
+            retired[i] = chromosomes.get(i);
+        chromosomes.clear();
+        Collections.addAll(chromosomes, spares);
+        Chromosome[] temp = spares;
+        spares = retired;
+        retired = temp;
+        int[] tempScores = scores;
+        scores = spareScores;
+        spareScores = tempScores;
+        scoresAreCurrent = true;
+        rankingIsCurrent = false;
 
         // Record best score into history.
         int currentScore = getFittest().score;
         history.add(currentScore);
 
+        // Track convergence.
+        nGenerations++;
+        nEvaluations += 2*nPairs;
+        if (currentScore >= stoppingRules.nextProgressScore(progressScore))
+        {
+            progressScore = currentScore;
+            progressGeneration = nGenerations;
+        }
+
         // Adjust operator rates.
         int histoSize = history.size();
         if (histoSize >= ACTIVITY_CHECKIN_PERIOD  &&
@@ -182,6 +301,120 @@ class Population
     }
 
 
+    // Allocates on the first step, and again only if the generation size
+    // changes (e.g. an odd nChromosomes makes the first bred generation 1
+    // larger than the initial one).
+    private void allocateBuffers(int nPairs)
+    {
+        int nextSize = 2 + 2*nPairs;
+        if (spares == null  ||  spares.length != nextSize)
+            spares = newGeneration(chromosomes.get(0), nextSize);
+        if (spareScores == null  ||  spareScores.length != nextSize)
+            spareScores = new int[nextSize];
+        if (retired == null  ||  retired.length != chromosomes.size())
+            retired = new Chromosome[chromosomes.size()];
+        if (breederIndices == null  ||  breederIndices.length != nChromosomes)
+            breederIndices = new int[nChromosomes];
+        if (pairRandoms == null  ||  pairRandoms.length != nPairs)
+        {
+            pairRandoms = new SplittableRandom[nPairs];
+            breedingTasks = null;
+        }
+        if (breedingPool != null  &&  breedingTasks == null)
+        {
+            // Tasks read the per-step arrays when they run, so they're built once.
+            breedingTasks = new ArrayList<Callable<Void>>();
+            for (int from=0; from<nPairs; from+=PAIRS_PER_BREEDING_TASK)
+            {
+                int start = from;
+                int end = Math.min(nPairs, from+PAIRS_PER_BREEDING_TASK);
+                breedingTasks.add(() ->
+                {
+                    breed(start, end);
+                    return null;
+                });
+            }
+        }
+    }
+
+
+    // Breeds pairs [fromPair, toPair), putting the kids of pair n into
+    // spares[2n+2] and spares[2n+3]. Pairs are independent, so ranges can be
+    // bred concurrently.
+    private void breed(int fromPair, int toPair)
+    {
+        for (int pair=fromPair; pair<toPair; pair++)
+        {
+            SplittableRandom pairRandom = pairRandoms[pair];
+            // Get parents.
+            Chromosome ma = parents[breederIndices[2*pair]];
+            Chromosome pa = parents[breederIndices[2*pair+1]];
+            // Crossover.
+            Chromosome kid0 = spares[2*pair+2];
+            Chromosome kid1 = spares[2*pair+3];
+            Chromosome.crossover(ma, pa, crossoverRate, pairRandom, kid0, kid1);
+            // Mutate & evaluate.
+            kid0.mutate(mutationRate, pairRandom);
+            kid0.evaluate(ungappedDataset, consensusWidth);
+            kid1.mutate(mutationRate, pairRandom);
+            kid1.evaluate(ungappedDataset, consensusWidth);
+            spareScores[2*pair+2] = kid0.score;
+            spareScores[2*pair+3] = kid1.score;
+        }
+    }
+
+
+    // Passing a pool makes step1Generation() breed & evaluate children on the
+    // pool's threads; null restores serial breeding. Either way, the same
+    // random state produces the same next generation.
+    void setBreedingPool(ForkJoinPool pool)
+    {
+        breedingPool = pool;
+        breedingTasks = null;
+    }
+
+
+    // Takes effect as generations are next allocated: the members of later
+    // generations are views of a shared gene matrix iff packed. Results don't
+    // depend on the mode.
+    void setPackedGenes(boolean packed)
+    {
+        if (packed != packedGenes)
+            spares = null;
+        packedGenes = packed;
+    }
+
+
+    // Takes effect at the next step. Progress is measured from the current
+    // best score, so the first window is as long as any other, and a
+    // relative threshold is relative to a real score.
+    void setStoppingRules(StoppingRules rules)
+    {
+        stoppingRules = rules;
+        progressScore = getFittest().score;
+        progressGeneration = nGenerations;
+    }
+
+
+    // True if the stopping rules detect stagnation and the best score hasn't
+    // made progress in the last window of generations.
+    boolean hasStagnated()
+    {
+        return stoppingRules.detectsStagnation()  &&
+               nGenerations - progressGeneration >= stoppingRules.stagnationWindow;
+    }
+
+
+    // Chromosomes bred & evaluated by each step1Generation().
+    int evaluationsPerGeneration()
+    {
+        return 2 * ((nChromosomes - 1) / 2);
+    }
+
+
+    // Generations are double-buffered, so the returned instances are
+    // overwritten by the second step1Generation() after this call. Callers
+    // that keep them longer must copy them.
     List<Chromosome> topNChromosomes(int n)
     {
         assert chromosomes.size() >= n;
@@ -194,6 +427,24 @@ class Population
     }
 
 
+    // Like topNChromosomes(), but skips members equal to fitter ones, so
+    // there may be fewer than n. Same lifetime as topNChromosomes().
+    List<Chromosome> topNDistinctChromosomes(int n)
+    {
+        ArrayList<Chromosome> ret = new ArrayList<Chromosome>(n);
+        for (Chromosome chromo: sortDescending())
+        {
+            if (ret.size() == n)
+                break;
+            if (!ret.contains(chromo))
+                ret.add(chromo);
+        }
+        return ret;
+    }
+
+
+    // Cheap after the first call in each generation. Same lifetime as
+    // topNChromosomes().
     Chromosome getFittest()
     {
         return sortDescending()[0];
@@ -217,6 +468,8 @@ class Population
 
 
     PopulationHistory getHistory()        { return history;               }
+    int getNGenerations()                 { return nGenerations;          }
+    long getNEvaluations()                { return nEvaluations;          }
     int getMaxScore()                     { return history.getMaxScore(); }
     static void sop(Object x)             { System.out.println(x);        }
 }
@@ -1,6 +1,7 @@
 package msg;
 
 import java.io.*;
+import java.util.*;
 
 
 class RandomFastaGenerator
@@ -10,15 +11,16 @@ class RandomFastaGenerator
                                                     "ModerateSkew", "IntenseSkew" };
 
 
-    public static void generate(File dirf) throws IOException
+    public static void generate(File dirf, SplittableRandom random) throws IOException
     {
         assert dirf.exists() : "No such dir: " + dirf.getAbsolutePath();
         for (int i=0; i<SKEWS.length; i++)
-            generate(new File(dirf, FNAMES[i]+".fasta"), 6, SKEWS[i]);
+            generate(new File(dirf, FNAMES[i]+".fasta"), 6, SKEWS[i], random);
     }
 
 
-    private static void generate(File file, int nSeqs, int skew) throws IOException
+    private static void generate(File file, int nSeqs, int skew, SplittableRandom random)
+        throws IOException
     {
         FileWriter fw = new FileWriter(file);
         PrintWriter pw = new PrintWriter(fw, true);     // true for autoflush
@@ -31,7 +33,7 @@ class RandomFastaGenerator
             assert len > 0;
             StringBuilder sb = new StringBuilder();
             for (int j=0; j<len; j++)
-                sb.append(randomAA());
+                sb.append(randomAA(random));
             pw.print(sb + "\r\n");
         }
 
@@ -43,19 +45,22 @@ class RandomFastaGenerator
     private final static String AA_CHARS = "ACDEFGHIKLMNPQRSTVWY";
 
 
-    private static char randomAA()
+    private static char randomAA(SplittableRandom random)
     {
-        int index = (int)(AA_CHARS.length() * Math.random());
+        int index = random.nextInt(AA_CHARS.length());
         return AA_CHARS.charAt(index);
     }
 
 
     public static void main(String[] args)
     {
+        // Optional arg is a seed, for repeatable output.
         File dirf = MSGFrame.RANDOM_DIRF;
+        SplittableRandom random = args.length > 0  ?  new SplittableRandom(Long.parseLong(args[0]))
+                                                   :  new SplittableRandom();
         try
         {
-            generate(dirf);
+            generate(dirf, random);
             System.out.println("Done");
         }
         catch (IOException x)
@@ -0,0 +1,103 @@
+package msg;
+
+import java.util.*;
+
+
+//
+// An alignment stored as 5-bit residue codes in column-major order: the
+// residues of column c are codes[c*nRows] thru codes[c*nRows + nRows-1]. Code 0
+// is a gap, and codes 1-26 are 'A'-'Z'. Only amino acids accepted by
+// AlignmentScorer.isAa() are ever encoded, so scoring needs no per-residue
+// checks.
+//
+
+
+class ResidueAlignment
+{
+    final static byte           GAP         = 0;
+
+    final int                   nRows;
+    final int                   nCols;
+    final byte[]                codes;
+
+
+    ResidueAlignment(int nRows, int nCols)
+    {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        codes = new byte[nRows * nCols];
+    }
+
+
+    // Throws IllegalArgumentException if ch is neither an amino acid nor a gap.
+    static byte encode(char ch) throws IllegalArgumentException
+    {
+        if (ch == '-')
+            return GAP;
+        if (ch < 'A'  ||  ch > 'Z'  ||  !AlignmentScorer.isAa(ch))
+            throw new IllegalArgumentException("Illegal residue: |" + ch + "|");
+        return (byte)(ch - 'A' + 1);
+    }
+
+
+    static char decode(byte code)
+    {
+        return code == GAP  ?  '-'  :  (char)('A' + code - 1);
+    }
+
+
+    // Encodes an ungapped sequence. Throws IllegalArgumentException if seq
+    // contains a gap or a non-amino-acid.
+    static byte[] encodeUngapped(String seq) throws IllegalArgumentException
+    {
+        byte[] ret = new byte[seq.length()];
+        for (int i=0; i<ret.length; i++)
+        {
+            ret[i] = encode(seq.charAt(i));
+            if (ret[i] == GAP)
+                throw new IllegalArgumentException("Gap in ungapped sequence " + seq);
+        }
+        return ret;
+    }
+
+
+    // Throws IllegalArgumentException if rows are ragged or contain illegal chars.
+    static ResidueAlignment fromChars(char[][] rows) throws IllegalArgumentException
+    {
+        ResidueAlignment ret = new ResidueAlignment(rows.length, rows[0].length);
+        for (int row=0; row<rows.length; row++)
+        {
+            if (rows[row].length != ret.nCols)
+                throw new IllegalArgumentException("Ragged alignment: row " + row +
+                                                   " has width " + rows[row].length +
+                                                   " != " + ret.nCols);
+            for (int col=0; col<ret.nCols; col++)
+                ret.codes[col*ret.nRows + row] = encode(rows[row][col]);
+        }
+        return ret;
+    }
+
+
+    static ResidueAlignment fromStrings(Collection<String> rows) throws IllegalArgumentException
+    {
+        char[][] chars = new char[rows.size()][];
+        int n = 0;
+        for (String s: rows)
+            chars[n++] = s.toCharArray();
+        return fromChars(chars);
+    }
+
+
+    char[][] toCharArrays()
+    {
+        char[][] ret = new char[nRows][nCols];
+        for (int col=0; col<nCols; col++)
+            for (int row=0; row<nRows; row++)
+                ret[row][col] = decode(codes[col*nRows + row]);
+        return ret;
+    }
+
+
+    byte get(int row, int col)              { return codes[col*nRows + row]; }
+    void set(int row, int col, byte code)   { codes[col*nRows + row] = code; }
+}
@@ -1,5 +1,8 @@
 package msg;
 
+import java.util.*;
+
+
 class RouletteWheel
 {
     // Assumes generation size = 100. Index is rank (0 is best).
@@ -19,21 +22,25 @@ class RouletteWheel
     }
 
 
-    static int[] spin(int matingPoolSize)
+    static int[] spin(int matingPoolSize, SplittableRandom random)
     {
         int[] winners = new int[matingPoolSize];
-        for (int i=0; i<matingPoolSize; i++)
-        {
-            int randy = (int)(THE_WHEEL.length * Math.random());
-            winners[i] = THE_WHEEL[randy];
-        }
+        spin(winners, random);
         return winners;
     }
 
 
+    // Fills all of winners[].
+    static void spin(int[] winners, SplittableRandom random)
+    {
+        for (int i=0; i<winners.length; i++)
+            winners[i] = THE_WHEEL[random.nextInt(THE_WHEEL.length)];
+    }
+
+
     public static void main(String[] args)
     {
-        int[] winners = spin(50);
+        int[] winners = spin(50, new SplittableRandom());
         String s = "";
         for (int i: winners)
             s += i + ",";
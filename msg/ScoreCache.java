@@ -0,0 +1,177 @@
+package msg;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+//
+// A bounded map from long keys to int scores, safe for concurrent use. Keys
+// hash to a set of SET_SIZE slots; when a set is full, a clock hand sweeps it
+// and evicts the first slot that hasn't been read since the hand last passed.
+// Sets are grouped into independently locked stripes to limit contention.
+//
+
+
+class ScoreCache
+{
+    final static int                MISS                = Integer.MIN_VALUE;
+    private final static int        SET_SIZE            = 4;
+    private final static int        N_STRIPES           = 16;
+
+    private final Stripe[]          stripes;
+    private final int               setsPerStripe;
+    private final LongAdder         hits                = new LongAdder();
+    private final LongAdder         misses              = new LongAdder();
+
+
+    ScoreCache(int capacity)
+    {
+        int nSets = Math.max(N_STRIPES, Integer.highestOneBit(Math.max(1, capacity / SET_SIZE)));
+        setsPerStripe = nSets / N_STRIPES;
+        stripes = new Stripe[N_STRIPES];
+        for (int i=0; i<N_STRIPES; i++)
+            stripes[i] = new Stripe(setsPerStripe);
+    }
+
+
+    // Returns MISS if key isn't cached.
+    int get(long key)
+    {
+        long h = mix(key);
+        Stripe stripe = stripes[(int)(h & (N_STRIPES-1))];
+        int set = (int)((h >>> 32) & (setsPerStripe-1));
+        int val = stripe.get(set, key);
+        if (val == MISS)
+            misses.increment();
+        else
+            hits.increment();
+        return val;
+    }
+
+
+    void put(long key, int val)
+    {
+        assert val != MISS;
+        long h = mix(key);
+        Stripe stripe = stripes[(int)(h & (N_STRIPES-1))];
+        int set = (int)((h >>> 32) & (setsPerStripe-1));
+        stripe.put(set, key, val);
+    }
+
+
+    void clear()
+    {
+        for (Stripe stripe: stripes)
+            stripe.clear();
+        hits.reset();
+        misses.reset();
+    }
+
+
+    // Stafford's variant 13 of the murmur3 finalizer.
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+
+    double getHitRate()
+    {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0  ?  0  :  (double)h / total;
+    }
+
+
+    public String toString()
+    {
+        return "ScoreCache: hits=" + getHits() + " misses=" + getMisses() +
+               " hit rate=" + getHitRate();
+    }
+
+
+    long getHits()                  { return hits.sum();   }
+    long getMisses()                { return misses.sum(); }
+
+
+    private static class Stripe
+    {
+        private final long[]        keys;
+        private final int[]         vals;
+        private final boolean[]     occupied;
+        private final boolean[]     referenced;
+        private final byte[]        hands;          // clock hand per set
+
+
+        Stripe(int nSets)
+        {
+            keys = new long[nSets * SET_SIZE];
+            vals = new int[nSets * SET_SIZE];
+            occupied = new boolean[nSets * SET_SIZE];
+            referenced = new boolean[nSets * SET_SIZE];
+            hands = new byte[nSets];
+        }
+
+
+        synchronized int get(int set, long key)
+        {
+            int base = set * SET_SIZE;
+            for (int slot=base; slot<base+SET_SIZE; slot++)
+            {
+                if (occupied[slot]  &&  keys[slot] == key)
+                {
+                    referenced[slot] = true;
+                    return vals[slot];
+                }
+            }
+            return MISS;
+        }
+
+
+        synchronized void put(int set, long key, int val)
+        {
+            int base = set * SET_SIZE;
+            int free = -1;
+            for (int slot=base; slot<base+SET_SIZE; slot++)
+            {
+                if (!occupied[slot])
+                {
+                    if (free < 0)
+                        free = slot;
+                }
+                else if (keys[slot] == key)
+                {
+                    vals[slot] = val;
+                    return;
+                }
+            }
+
+            // Set is full: advance the clock hand past referenced slots.
+            if (free < 0)
+            {
+                int hand = hands[set];
+                while (referenced[base+hand])
+                {
+                    referenced[base+hand] = false;
+                    hand = (hand + 1) % SET_SIZE;
+                }
+                free = base + hand;
+                hands[set] = (byte)((hand + 1) % SET_SIZE);
+            }
+
+            keys[free] = key;
+            vals[free] = val;
+            occupied[free] = true;
+            referenced[free] = false;
+        }
+
+
+        synchronized void clear()
+        {
+            Arrays.fill(occupied, false);
+            Arrays.fill(referenced, false);
+        }
+    }
+}
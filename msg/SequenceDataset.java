@@ -3,7 +3,10 @@ package msg;
 import java.util.*;
 
 
-// Extends a map from sequence name to sequence.
+// Extends a map from sequence name to sequence. put(), putAll(), remove()
+// and clear() call contentsChanged(), so subclasses can drop what they cache.
+// Other TreeMap mutators (e.g. replace() or pollFirstEntry()) bypass it, so
+// don't use them.
 class SequenceDataset extends TreeMap<String, String>
 {
     private String      name;
@@ -12,18 +15,47 @@ class SequenceDataset extends TreeMap<String, String>
     SequenceDataset(String name)        { this.name = name; }
 
 
+    public String put(String k, String v)
+    {
+        String ret = super.put(k, v);
+        contentsChanged();
+        return ret;
+    }
+
+
+    public void putAll(Map<? extends String, ? extends String> map)
+    {
+        super.putAll(map);
+        contentsChanged();
+    }
+
+
+    public String remove(Object k)
+    {
+        String ret = super.remove(k);
+        contentsChanged();
+        return ret;
+    }
+
+
+    public void clear()
+    {
+        super.clear();
+        contentsChanged();
+    }
+
+
+    // Called after every change.
+    protected void contentsChanged()
+    {
+    }
+
+
     UngappedSequenceDataset removeGaps()
     {
         UngappedSequenceDataset ret = new UngappedSequenceDataset(name);
-        for (String k: keySet())
-        {
-            String gapped = get(k);
-            StringBuilder sb = new StringBuilder();
-            for (int i=0; i<gapped.length(); i++)
-                if (gapped.charAt(i) != '-')
-                    sb.append(gapped.charAt(i));
-            ret.put(k, sb.toString());
-        }
+        for (Map.Entry<String, String> entry: entrySet())
+            ret.put(entry.getKey(), entry.getValue().replace("-", ""));
         return ret;
     }
 
@@ -60,25 +92,24 @@ class SequenceDataset extends TreeMap<String, String>
     int countGaps()
     {
         int n = 0;
-        for (String s: values())
-        {
-            for (int i=0; i<s.length(); i++)
-            {
-                if (s.charAt(i) == '-')
+        for (String seq: values())
+            for (int i=0; i<seq.length(); i++)
+                if (seq.charAt(i) == '-')
                     n++;
-            }
-        }
         return n;
     }
 
 
+    // True if there are no sequences.
     boolean isUniformWidth()
     {
-        String s = values().iterator().next();
-        int w = s.length();
-        for (String s1: values())
-            if (s1.length() != w)
+        int w = -1;
+        for (String seq: values())
+        {
+            if (w >= 0  &&  seq.length() != w)
                 return false;
+            w = seq.length();
+        }
         return true;
     }
 
@@ -8,12 +8,14 @@ class SizeAdjustingChromosome extends Chromosome
 {
     // Constructs a chromosome that represents the result of adjusting the
     // width of src by deltaWidth. If widening, columns of gaps are added
-    // fore & aft. If narrowing, columns are deleted.
-    SizeAdjustingChromosome(SequenceDataset src, int deltaWidth, int nGapsAfter)
+    // fore & aft. If narrowing, columns are deleted. The result is canonical.
+    SizeAdjustingChromosome(SequenceDataset src, int deltaWidth, int nGapsAfter,
+                            SplittableRandom random)
     {
         assert src.isUniformWidth();
 
         this.maxGapIndex = nGapsAfter - 1;
+        UngappedSequenceDataset ungapped = src.removeGaps();
 
         if (deltaWidth >= 0)
         {
@@ -26,56 +28,60 @@ class SizeAdjustingChromosome extends Chromosome
             // Add columns.
             bookendNGapCols(sbs, deltaWidth);
 
-            // Compute gap locations.
-            this.maxGapIndex = sbs[0].length() - 1;
+            // Compute gap locations. Scanning each row left to right leaves
+            // them canonical.
+            this.maxGapIndex = checkMaxGapIndex(sbs[0].length() - 1);
+            this.gapStarts = gapStarts(ungapped, sbs[0].length());
             int nGaps = 0;
             for (StringBuilder sb: sbs)
                 for (int i=0; i<sb.length(); i++)
                     if (sb.charAt(i) == '-')
                         nGaps++;
             assert nGaps == nGapsAfter;
-            this.gapLocations = new int[nGaps];
+            allocateGenes(nGaps);
             n = 0;
             for (StringBuilder sb: sbs)
                 for (int i=0; i<sb.length(); i++)
                     if (sb.charAt(i) == '-')
-                        gapLocations[n++] = i;
+                        gapLocations[n++] = (char)i;
             assert n == nGapsAfter;
+            recomputeFingerprint();
 
             // Compute score.
-            UngappedSequenceDataset ungapped = src.removeGaps();
             evaluate(ungapped, sbs[0].length());
         }
 
         else
         {
-            // Try to slenderize. If slenderizer can't find a solution,
-            // revert to random.
+            // Slenderize. Every row keeps its residues and loses deltaWidth
+            // gaps, which always works if the narrower width fits every
+            // sequence; if it somehow doesn't, revert to random.
             int nColsBefore = src.widthOfWidestSequence();
             deltaWidth = Math.abs(deltaWidth);
             int nColsAfter = nColsBefore - deltaWidth;
             assert nColsAfter > 0;
-            Slenderizer slen = new Slenderizer(src.values());
-            this.gapLocations = new int[nGapsAfter];
-            this.maxGapIndex = nColsAfter - 1;
+            Slenderizer slen = new Slenderizer(src.values(), random);
+            allocateGenes(nGapsAfter);
+            this.maxGapIndex = checkMaxGapIndex(nColsAfter - 1);
+            this.gapStarts = gapStarts(ungapped, nColsAfter);
             if (slen.slenderize(nColsAfter, nGapsAfter) != null)
             {
-                // Slenderizer found a solution.
+                // Slenderizer found a solution. Scanning each row left to
+                // right leaves the gap locations canonical.
                 char[][] reducedAlignment = slen.getAlignment();
                 int n = 0;
                 for (char[] seq: reducedAlignment)
                     for (int col=0; col<seq.length; col++)
                         if (seq[col] == '-')
-                            gapLocations[n++] = col;
+                            gapLocations[n++] = (char)col;
                 assert n == nGapsAfter;
-                UngappedSequenceDataset ungapped = src.removeGaps();
+                recomputeFingerprint();
                 evaluate(ungapped, nColsAfter);
             }
             else
             {
                 // Slenderizer couldn't find a solution. Revert to random.
-                randomize();
-                UngappedSequenceDataset ungapped = src.removeGaps();
+                randomize(random);
                 evaluate(ungapped, nColsAfter);
             }
         }
@@ -176,7 +182,8 @@ class SizeAdjustingChromosome extends Chromosome
             File dirf = MSGFrame.GAG_POL_DIRF;
             File file = new File(dirf, "gag_04.clw");
             SequenceDataset gag4 = ClustalParser.parseFileToGapped(file);
-            SizeAdjustingChromosome saChro = new SizeAdjustingChromosome(gag4, -2, 8);
+            int nGapsAfter = gag4.size()*(gag4.widthOfWidestSequence()-2) - gag4.removeGaps().nCharsOverall();
+            SizeAdjustingChromosome saChro = new SizeAdjustingChromosome(gag4, -2, nGapsAfter, new SplittableRandom());
             sop(saChro);
         }
         catch (IOException x)
@@ -1,137 +1,413 @@
 package msg;
 
 import java.util.*;
+import java.util.stream.*;
 import java.io.*;
 
 
 /*
  * Here's the puzzle: how do you reduce the width of a gapful alignment by
- * n columns, while removing exactly g gaps? The solution here is probabilistic.
- * Each pass randomly removes n columns; the pass is feasible if the n columns
- * contained g gaps. Feasible solutions with higher scores are preferred.
+ * n columns, while removing exactly g gaps?
+ *
+ * When g is n gaps per row, as it is for a chromosome (every residue has to
+ * survive), each row must lose exactly n of its own gaps. A candidate picks n
+ * columns to remove, favoring gappy ones. Each row drops its gaps in those
+ * columns, and for each removed column where it has a residue, it drops its
+ * nearest other gap instead, so the residues in between slide over by 1.
+ * This always succeeds if every row has at least n gaps, i.e. if the narrower
+ * width still fits every sequence.
+ *
+ * For any other g, whole columns are deleted, residues and all, and a deletion
+ * is feasible if its columns contain g gaps in total. That's subset-sum over
+ * gapsByCol: a table of the (# of columns, # of gaps) totals reachable from
+ * each column onward lets candidates be drawn from feasible deletions only,
+ * and proves there are none when that's the case.
+ *
+ * Either way, candidates are ranked by their pair scores, without gap
+ * penalties. Columns that only lose whole columns around them keep their
+ * precomputed scores; only the columns where rows were shifted are rescored.
+ * The best few are then scored exactly, with gap penalties. Candidates are built
+ * in parallel, each from its own split of the random source, so the winner
+ * doesn't depend on thread scheduling.
  */
 
 class Slenderizer
 {
-    private final static int        N_PASSES = 10000;
+    private final static int        N_CANDIDATES    = 256;
+    private final static int        N_EXACT         = 16;           // best estimates scored exactly
+    private final static long       MAX_TABLE_BITS  = 1L << 28;     // 32 MB
 
     private Collection<String>      originalSeqs;
+    private ResidueAlignment        original;
+    private int                     nRows;
     private int                     nColsBefore;
     private int                     nColsAfter;
-    private int                     nGapsBefore;
-    private int                     nGapsAfter;
     private int                     nColsToRemove;
     private int                     nGapsToRemove;
     private int                     scoreOfBestSolution;
     private int[]                   gapsByCol;
+    private int[]                   scoreByCol;                     // pair scores, no gap penalties
+    private int                     totalColScore;
+    private long[][]                reachable;                      // see buildTable()
+    private int                     wordsPerCount;
     private char[][]                slenderAlignment;
+    private SplittableRandom        random;
 
-    Slenderizer(Collection<String> originalSeqs)
+    Slenderizer(Collection<String> originalSeqs, SplittableRandom random)
     {
         this.originalSeqs = originalSeqs;
+        this.random = random;
     }
 
 
-    // Returns null if no solution can be found. Otherwise returns best solution
-    // found by randomization.
+    // Returns null if there's no solution. Otherwise returns the removed
+    // columns of the best solution found, in ascending order; getAlignment()
+    // returns the narrowed alignment.
     int[] slenderize(int nColsAfter, int nGapsAfter)
     {
         this.nColsAfter = nColsAfter;
-        this.nGapsAfter = nGapsAfter;
 
-        // Compute # cols & gaps to remove.
-        nColsBefore = originalSeqs.iterator().next().length();
+        // Compute # cols & gaps to remove, gaps per col, and score per col.
+        original = ResidueAlignment.fromStrings(originalSeqs);
+        nRows = original.nRows;
+        nColsBefore = original.nCols;
         nColsToRemove = nColsBefore - nColsAfter;
         assert nColsToRemove > 0 :
                "nColsBefore=" + nColsBefore + ", nColsAfter=" + nColsAfter;
-        nGapsBefore = 0;
-        for (String seq: originalSeqs)
-            for (int i=0; i<seq.length(); i++)
-                if (seq.charAt(i) == '-')
-                    nGapsBefore++;
+        gapsByCol = new int[nColsBefore];
+        int nGapsBefore = 0;
+        for (int i=0; i<original.codes.length; i++)
+        {
+            if (original.codes[i] == ResidueAlignment.GAP)
+            {
+                gapsByCol[i / nRows]++;
+                nGapsBefore++;
+            }
+        }
         nGapsToRemove = nGapsBefore - nGapsAfter;
         assert nGapsToRemove > 0;
+        scoreByCol = AlignmentScorer.scoreColumns(original);
+        totalColScore = 0;
+        for (int score: scoreByCol)
+            totalColScore += score;
 
-        // Count gaps per col.
-        gapsByCol = new int[nColsBefore];
-        for (int col=0; col<gapsByCol.length; col++)
-            for (String seq: originalSeqs)
-                if (seq.charAt(col) == '-')
-                    gapsByCol[col]++;
-
-        // Randomly generate columns.
-        int[] bestSolution = null;
-        int scoreOfBestSolution = Integer.MIN_VALUE;
-        for (int i=0; i<N_PASSES; i++)
+        boolean keepResidues = nGapsToRemove == nRows * nColsToRemove;
+        if (keepResidues  ?  !everyRowHasEnoughGaps()  :  !buildTable())
+            return null;
+
+        // Build & rank candidates.
+        SplittableRandom[] randoms = new SplittableRandom[N_CANDIDATES];
+        for (int i=0; i<N_CANDIDATES; i++)
+            randoms[i] = random.split();
+        Candidate[] candidates = IntStream.range(0, N_CANDIDATES).parallel()
+            .mapToObj(i -> keepResidues  ?  shiftingCandidate(i, randoms[i])  :  deletingCandidate(i, randoms[i]))
+            .toArray(Candidate[]::new);
+        Arrays.sort(candidates, (c1, c2) -> c1.estimate != c2.estimate  ?  Integer.compare(c2.estimate, c1.estimate)
+                                                                        :  Integer.compare(c1.index, c2.index));
+
+        // Score the finalists exactly. Ties go to the better estimate.
+        Candidate[] finalists = Arrays.copyOf(candidates, Math.min(N_EXACT, candidates.length));
+        IntStream.range(0, finalists.length).parallel().forEach(i -> finalists[i].scoreExactly());
+        Candidate best = finalists[0];
+        for (Candidate c: finalists)
+            if (c.score > best.score)
+                best = c;
+        scoreOfBestSolution = best.score;
+        slenderAlignment = best.alignment;
+        return best.removedCols;
+    }
+
+
+    private boolean everyRowHasEnoughGaps()
+    {
+        for (int row=0; row<nRows; row++)
+        {
+            int nGaps = 0;
+            for (int col=0; col<nColsBefore; col++)
+                if (original.get(row, col) == ResidueAlignment.GAP)
+                    nGaps++;
+            if (nGaps < nColsToRemove)
+                return false;
+        }
+        return true;
+    }
+
+
+    //
+    // Shifting candidates, for when residues are kept.
+    //
+
+    // Candidate 0 removes the gappiest columns, preferring low scores. The
+    // rest sample columns with weight (gaps+1)^2.
+    private Candidate shiftingCandidate(int index, SplittableRandom rand)
+    {
+        int[] removed = (index == 0)  ?  gappiestCols()  :  sampleGappyCols(rand);
+        int[][] dropped = new int[nRows][nColsToRemove];
+        boolean[] isDropped = new boolean[nColsBefore];
+        boolean[] shifted = new boolean[nColsBefore];
+        for (int row=0; row<nRows; row++)
+        {
+            int n = 0;
+            for (int col: removed)
+            {
+                if (original.get(row, col) == ResidueAlignment.GAP)
+                {
+                    isDropped[col] = true;
+                    dropped[row][n++] = col;
+                }
+            }
+            for (int col: removed)
+            {
+                if (original.get(row, col) != ResidueAlignment.GAP)
+                {
+                    int gapCol = nearestUndroppedGap(row, col, isDropped, rand);
+                    isDropped[gapCol] = true;
+                    dropped[row][n++] = gapCol;
+                    Arrays.fill(shifted, Math.min(col, gapCol), Math.max(col, gapCol)+1, true);
+                }
+            }
+            assert n == nColsToRemove;
+            for (int col: dropped[row])
+                isDropped[col] = false;
+            Arrays.sort(dropped[row]);
+        }
+        return new Candidate(index, removed, dropped, shifted);
+    }
+
+
+    // There's always one, because the row has at least nColsToRemove gaps.
+    private int nearestUndroppedGap(int row, int col, boolean[] isDropped, SplittableRandom rand)
+    {
+        int firstSide = rand.nextBoolean()  ?  1  :  -1;
+        for (int dist=1; ; dist++)
         {
-            int[] candidate = buildRandomCandidate();
-            if (!isFeasible(candidate))
-                continue;
-            char[][] charArr = delColsToAlignment(candidate);
-            int candidateScore = AlignmentScorer.scoreAlignment(charArr);
-            if (candidateScore > scoreOfBestSolution)
+            for (int side: new int[] { firstSide, -firstSide })
             {
-                scoreOfBestSolution = candidateScore;
-                bestSolution = candidate;
-                slenderAlignment = charArr;
+                int c = col + side*dist;
+                if (c >= 0  &&  c < nColsBefore  &&  !isDropped[c]  &&
+                    original.get(row, c) == ResidueAlignment.GAP)
+                        return c;
             }
+            assert dist < nColsBefore;
         }
+    }
 
-        return bestSolution;
+
+    private int[] gappiestCols()
+    {
+        Integer[] cols = new Integer[nColsBefore];
+        for (int col=0; col<nColsBefore; col++)
+            cols[col] = col;
+        Arrays.sort(cols, (c1, c2) -> gapsByCol[c1] != gapsByCol[c2]  ?  gapsByCol[c2] - gapsByCol[c1]  :
+                                      scoreByCol[c1] != scoreByCol[c2]  ?  Integer.compare(scoreByCol[c1], scoreByCol[c2])  :
+                                                                         c1 - c2);
+        return sortedPrefix(cols);
     }
 
-    @SuppressWarnings("unchecked")
-    private int[] buildRandomCandidate()
+
+    // Weighted sampling without replacement: each column gets key
+    // u^(1/weight) for uniform u, and the highest keys win.
+    private int[] sampleGappyCols(SplittableRandom rand)
     {
-        int[] ret = new int[nColsToRemove];
-        ArrayList unusedCols = new ArrayList<Integer>(nColsBefore);
-        for (int i=0; i<nColsBefore; i++)
-            unusedCols.add(i);
-        int n = 0;
-        while (n < ret.length)
+        double[] keys = new double[nColsBefore];
+        Integer[] cols = new Integer[nColsBefore];
+        for (int col=0; col<nColsBefore; col++)
         {
-            int colIndex =  (int)(unusedCols.size() * Math.random());
-            ret[n++] = (Integer)unusedCols.remove(colIndex);
+            double weight = (gapsByCol[col] + 1.0) * (gapsByCol[col] + 1.0);
+            keys[col] = Math.log(rand.nextDouble()) / weight;
+            cols[col] = col;
         }
+        Arrays.sort(cols, (c1, c2) -> Double.compare(keys[c2], keys[c1]));
+        return sortedPrefix(cols);
+    }
+
+
+    private int[] sortedPrefix(Integer[] cols)
+    {
+        int[] ret = new int[nColsToRemove];
+        for (int i=0; i<ret.length; i++)
+            ret[i] = cols[i];
+        Arrays.sort(ret);
         return ret;
     }
 
 
-    // A candidate is feasible if the columns it describes contain a total
-    // of nGapsToRemove gaps.
-    private boolean isFeasible(int[] candidate)
+    //
+    // Deleting candidates, for any other # of gaps to remove.
+    //
+
+    // reachable[c] holds a bitset of gap totals for each column count j:
+    // bit s of reachable[c][j*wordsPerCount ...] is set if some j of columns
+    // c thru nColsBefore-1 contain exactly s gaps. Only totals up to
+    // nGapsToRemove are kept. Returns false if there's no feasible deletion,
+    // or if the table would be too big.
+    private boolean buildTable()
+    {
+        if (nColsToRemove > nColsBefore)
+            return false;
+        wordsPerCount = (nGapsToRemove >>> 6) + 1;
+        int wordsPerCol = (nColsToRemove + 1) * wordsPerCount;
+        if ((nColsBefore + 1L) * wordsPerCol * 64 > MAX_TABLE_BITS)
+            return false;
+
+        reachable = new long[nColsBefore+1][];
+        reachable[nColsBefore] = new long[wordsPerCol];
+        reachable[nColsBefore][0] = 1L;                 // 0 columns, 0 gaps
+        for (int col=nColsBefore-1; col>=0; col--)
+        {
+            long[] next = reachable[col+1];
+            long[] table = next.clone();                // skip col
+            for (int j=1; j<=nColsToRemove; j++)        // take col
+                orShifted(next, (j-1)*wordsPerCount, table, j*wordsPerCount, wordsPerCount, gapsByCol[col]);
+            reachable[col] = table;
+        }
+        return isReachable(0, nColsToRemove, nGapsToRemove);
+    }
+
+
+    private static void orShifted(long[] src, int srcFrom, long[] dest, int destFrom, int nWords, int shift)
+    {
+        int wordShift = shift >>> 6;
+        int bitShift = shift & 63;
+        for (int i=nWords-1; i>=wordShift; i--)
+        {
+            long w = src[srcFrom + i - wordShift] << bitShift;
+            if (bitShift != 0  &&  i > wordShift)
+                w |= src[srcFrom + i - wordShift - 1] >>> (64 - bitShift);
+            dest[destFrom + i] |= w;
+        }
+    }
+
+
+    private boolean isReachable(int col, int nCols, int nGaps)
     {
-        int nGaps = 0;
-        for (int col: candidate)
-            nGaps += gapsByCol[col];
-        return nGaps == nGapsToRemove;
+        if (nGaps < 0)
+            return false;
+        long word = reachable[col][nCols*wordsPerCount + (nGaps >>> 6)];
+        return (word >>> (nGaps & 63) & 1L) != 0;
     }
 
 
-    private char[][] delColsToAlignment(int[] candidate)
+    // Walks the table from column 0, taking or skipping each column. Only
+    // choices that can still reach the target are made, so every walk ends
+    // with a feasible deletion.
+    private Candidate deletingCandidate(int index, SplittableRandom rand)
     {
-        // Collect delete columns into a set for easier membership check.
-        Set<Integer> deleteCols = new HashSet<Integer>(candidate.length);
-        for (int col: candidate)
-            deleteCols.add(col);
-
-        // Retain chars from non-deleted cols.
-        char[][] ret = new char[originalSeqs.size()][nColsAfter];
-        int seqNum = 0;
-        for (String seq: originalSeqs)
+        int[] removed = new int[nColsToRemove];
+        int n = 0;
+        int nGaps = nGapsToRemove;
+        for (int col=0; n<removed.length; col++)
         {
-            int destCol = 0;
-            for (int srcCol=0; srcCol<seq.length(); srcCol++)
+            int nLeft = removed.length - n;
+            boolean canTake = isReachable(col+1, nLeft-1, nGaps-gapsByCol[col]);
+            boolean canSkip = isReachable(col+1, nLeft, nGaps);
+            assert canTake  ||  canSkip;
+            if (canTake  &&  (!canSkip  ||  rand.nextInt(nColsBefore-col) < nLeft))
             {
-                if (deleteCols.contains(srcCol))
-                    continue;
-                ret[seqNum][destCol] = seq.charAt(srcCol);
-                destCol++;
+                removed[n++] = col;
+                nGaps -= gapsByCol[col];
             }
-            assert destCol == nColsAfter;
-            seqNum++;
         }
+        assert nGaps == 0;
+        return new Candidate(index, removed, null, null);
+    }
+
 
+    private class Candidate
+    {
+        final int           index;
+        final int[]         removedCols;        // ascending
+        final int[][]       droppedCols;        // by row, ascending; null => removedCols in every row
+        final int           estimate;           // pair score of the result
+        int                 score;
+        char[][]            alignment;
+
+        // Columns outside shifted[] keep their pair scores: any column that
+        // was removed there is all gaps, or is being deleted outright.
+        Candidate(int index, int[] removedCols, int[][] droppedCols, boolean[] shifted)
+        {
+            this.index = index;
+            this.removedCols = removedCols;
+            this.droppedCols = droppedCols;
+            int est = totalColScore;
+            for (int col: removedCols)
+                est -= scoreByCol[col];
+            if (shifted != null)
+            {
+                for (int col=0; col<nColsBefore; col++)
+                {
+                    if (!shifted[col])
+                        continue;
+                    int end = col;
+                    while (end < nColsBefore  &&  shifted[end])
+                        end++;
+                    est += rescoreShiftedRun(col, end, removedCols);
+                    col = end;
+                }
+            }
+            estimate = est;
+        }
+
+        // Returns the change in pair score from shifting columns from thru
+        // end-1. Every row drops the same # of cells there, so the result is
+        // a block of whole columns.
+        private int rescoreShiftedRun(int from, int end, int[] removedCols)
+        {
+            int delta = 0;
+            for (int col=from; col<end; col++)
+                if (Arrays.binarySearch(removedCols, col) < 0)
+                    delta -= scoreByCol[col];
+
+            ResidueAlignment block = null;
+            for (int row=0; row<nRows; row++)
+            {
+                int nKept = 0;
+                for (int col=from; col<end; col++)
+                    if (Arrays.binarySearch(droppedCols[row], col) < 0)
+                        nKept++;
+                if (block == null)
+                    block = new ResidueAlignment(nRows, nKept);
+                assert nKept == block.nCols;
+                int destCol = 0;
+                for (int col=from; col<end; col++)
+                    if (Arrays.binarySearch(droppedCols[row], col) < 0)
+                        block.set(row, destCol++, original.get(row, col));
+            }
+            for (int score: AlignmentScorer.scoreColumns(block))
+                delta += score;
+            return delta;
+        }
+
+        void scoreExactly()
+        {
+            alignment = new char[nRows][nColsAfter];
+            for (int row=0; row<nRows; row++)
+            {
+                int[] dropped = (droppedCols == null)  ?  removedCols  :  droppedCols[row];
+                int nDropped = 0;
+                int destCol = 0;
+                for (int srcCol=0; srcCol<nColsBefore; srcCol++)
+                {
+                    if (nDropped < dropped.length  &&  dropped[nDropped] == srcCol)
+                        nDropped++;
+                    else
+                        alignment[row][destCol++] = ResidueAlignment.decode(original.get(row, srcCol));
+                }
+                assert destCol == nColsAfter;
+            }
+            score = AlignmentScorer.scoreAlignment(alignment);
+            assert estimate == pairScore(alignment)  :
+                   "Estimate " + estimate + " != pair score " + pairScore(alignment);
+        }
+    }
+
+
+    // Score without gap penalties, as estimated for candidates.
+    private static int pairScore(char[][] alignment)
+    {
+        int ret = 0;
+        for (int score: AlignmentScorer.scoreColumns(ResidueAlignment.fromChars(alignment)))
+            ret += score;
         return ret;
     }
 
@@ -148,8 +424,10 @@ class Slenderizer
             File dirf = MSGFrame.GAG_POL_DIRF;
             File file = new File(dirf, "gag_04.clw");
             SequenceDataset gag4 = ClustalParser.parseFileToGapped(file);
-            Slenderizer that = new Slenderizer(gag4.values());
-            int[] winner = that.slenderize(47, 8);
+            int nColsAfter = gag4.widthOfWidestSequence() - 2;
+            int nGapsAfter = gag4.size()*nColsAfter - gag4.removeGaps().nCharsOverall();
+            Slenderizer that = new Slenderizer(gag4.values(), new SplittableRandom());
+            int[] winner = that.slenderize(nColsAfter, nGapsAfter);
             if (winner == null)
                 sop("No solution found.");
             else
@@ -157,7 +435,7 @@ class Slenderizer
                 String s = "Delete these columns: ";
                 for (int col: winner)
                     s += col + " ";
-                sop(s);
+                sop(s + "(score = " + that.getWinnerScore() + ")");
             }
         }
         catch (IOException x)
@@ -167,4 +445,3 @@ class Slenderizer
         }
     }
 }
-
@@ -0,0 +1,62 @@
+package msg;
+
+
+//
+// When a G.A. run may stop before its generation budget is spent. A population
+// has stagnated when its best score hasn't made progress in the last
+// stagnationWindow generations; progress means rising by at least
+// minRelativeImprovement times the magnitude of the last progress score, and
+// by at least 1. A whole run (every tribe & the merged population) also stops
+// after wallClockMillis, or after maxEvaluations chromosomes have been bred &
+// evaluated. Zero turns a rule off; NONE never stops early.
+//
+
+
+class StoppingRules
+{
+    final static StoppingRules      NONE                    = new StoppingRules(0, 0f, 0, 0);
+
+    final int                       stagnationWindow;           // generations
+    final float                     minRelativeImprovement;
+    final long                      wallClockMillis;
+    final long                      maxEvaluations;
+
+
+    // Throws IllegalArgumentException if any value is negative.
+    StoppingRules(int stagnationWindow, float minRelativeImprovement,
+                  long wallClockMillis, long maxEvaluations) throws IllegalArgumentException
+    {
+        if (stagnationWindow < 0  ||  !(minRelativeImprovement >= 0)  ||
+            wallClockMillis < 0  ||  maxEvaluations < 0)
+                throw new IllegalArgumentException("Negative stopping rule: stagnation window = " +
+                                                   stagnationWindow + ", min relative improvement = " +
+                                                   minRelativeImprovement + ", wall clock = " +
+                                                   wallClockMillis + ", max evaluations = " + maxEvaluations);
+        this.stagnationWindow = stagnationWindow;
+        this.minRelativeImprovement = minRelativeImprovement;
+        this.wallClockMillis = wallClockMillis;
+        this.maxEvaluations = maxEvaluations;
+    }
+
+
+    // Lowest score that counts as progress after progressScore.
+    int nextProgressScore(int progressScore)
+    {
+        long step = (long)Math.ceil(minRelativeImprovement * Math.abs((long)progressScore));
+        return (int)Math.min(Integer.MAX_VALUE, (long)progressScore + Math.max(1, step));
+    }
+
+
+    public String toString()
+    {
+        return "StoppingRules: stagnation window = " + stagnationWindow +
+               ", min relative improvement = " + minRelativeImprovement +
+               ", wall clock = " + wallClockMillis + " msecs" +
+               ", max evaluations = " + maxEvaluations;
+    }
+
+
+    boolean detectsStagnation()         { return stagnationWindow > 0;  }
+    boolean hasWallClockLimit()         { return wallClockMillis > 0;   }
+    boolean hasEvaluationLimit()        { return maxEvaluations > 0;    }
+}
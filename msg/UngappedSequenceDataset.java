@@ -1,35 +1,146 @@
 package msg;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 
 class UngappedSequenceDataset extends SequenceDataset
 {
+    private final static AtomicLong nextContentId = new AtomicLong();
+
+    // Read concurrently by tribes evolving in parallel, hence volatile.
+    private volatile CompactSequenceDataset compact;        // cached by compact()
+    private volatile long                   contentId = nextContentId.getAndIncrement();
+    private volatile Map<String, byte[]>    preEncoded;     // by putEncoded(), until compact is built
+
+
     UngappedSequenceDataset(String name)        { super(name); }
 
 
+    // Throws IllegalArgumentException if v contains anything but amino acids.
+    // This and putAll() are the only residue checks; scoring trusts the
+    // encoded sequences.
     public String put(String k, String v)
     {
-        assert v.indexOf('-') < 0;
+        ResidueAlignment.encodeUngapped(v);
+        Map<String, byte[]> pre = preEncoded;
+        if (pre != null)
+            pre.remove(k);
         return super.put(k, v);
     }
 
 
+    // For loaders that validate & encode residues as they read them: codes
+    // must be ResidueAlignment.encodeUngapped(v), so v isn't checked again
+    // and compact() doesn't have to encode it.
+    void putEncoded(String k, String v, byte[] codes)
+    {
+        assert Arrays.equals(codes, ResidueAlignment.encodeUngapped(v));
+        if (preEncoded == null)
+            preEncoded = new HashMap<String, byte[]>();
+        preEncoded.put(k, codes);
+        super.put(k, v);
+    }
+
+
+    // Throws IllegalArgumentException, and changes nothing, if any value
+    // contains anything but amino acids. Entries go in 1 at a time, since
+    // TreeMap.putAll() can bulk-load a sorted map without calling put().
+    public void putAll(Map<? extends String, ? extends String> map)
+    {
+        for (String v: map.values())
+            ResidueAlignment.encodeUngapped(v);
+        for (Map.Entry<? extends String, ? extends String> entry: map.entrySet())
+        {
+            Map<String, byte[]> pre = preEncoded;
+            if (pre != null)
+                pre.remove(entry.getKey());
+            super.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    public String remove(Object k)
+    {
+        Map<String, byte[]> pre = preEncoded;
+        if (pre != null)
+            pre.remove(k);
+        return super.remove(k);
+    }
+
+
+    public void clear()
+    {
+        preEncoded = null;
+        super.clear();
+    }
+
+
+    protected void contentsChanged()
+    {
+        super.contentsChanged();
+        compact = null;
+        contentId = nextContentId.getAndIncrement();
+    }
+
+
+    // The residue codes that scoring reads, packed & index-addressed, in
+    // iteration order. Built on first use after any change.
+    CompactSequenceDataset compact()
+    {
+        CompactSequenceDataset ret = compact;
+        if (ret == null)
+        {
+            ret = new CompactSequenceDataset(this, preEncoded);
+            compact = ret;
+            preEncoded = null;
+        }
+        return ret;
+    }
+
+
+    // Unique to this dataset in its current state: every change assigns a
+    // new id, so cached results keyed by the old one can't be returned for
+    // new contents.
+    long getContentId()
+    {
+        return contentId;
+    }
+
+
+    // Each sequence followed by enough gaps to make it as wide as the widest:
+    // a baseline alignment, for inputs such as FASTA files that don't come
+    // with one.
+    SequenceDataset padToWidestSequence()
+    {
+        int width = widthOfWidestSequence();
+        SequenceDataset ret = new SequenceDataset(getName());
+        for (Map.Entry<String, String> entry: entrySet())
+        {
+            String seq = entry.getValue();
+            ret.put(entry.getKey(), seq + "-".repeat(width - seq.length()));
+        }
+        return ret;
+    }
+
+
     int nCharsOverall()
     {
-        int n = 0;
-        for (String s: values())
-            n += s.length();
-        return n;
+        return compact().nResidues();
     }
 
 
+    // In iteration order.
     int[] getSequenceLengths()
     {
-        int[] ret = new int[size()];
-        int n = 0;
-        for (String seq: values())
-            ret[n++] = seq.length();
-        return ret;
+        return compact().getLengths();
+    }
+
+
+    // Hash (31*h + code) of each encoded sequence, in iteration order.
+    // Precomputed so that proofs can be checked against the dataset cheaply.
+    int[] getSequenceHashes()
+    {
+        return compact().getHashes();
     }
 }
@@ -0,0 +1,79 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// With a target score and 1 width at a time, a sweep runs the widths in the
+// caller's order and stops after the first whose best reaches the target.
+// Each width's stream is split before any width runs, so a width scores the
+// same whether or not the sweep stops early.
+//
+
+
+class ConsensusWidthSweepTest
+{
+    private final static int        N_TRIBES        =  4;
+    private final static int        N_GENS_TRIBE    = 40;
+    private final static int        N_GENS_COMBINED = 20;
+    private final static long       SEED            = 20_240_606L;
+
+    private static SequenceDataset          gapped;
+    private static UngappedSequenceDataset  ungapped;
+    private static int                      clustalScore;
+    private static List<Integer>            widths;
+
+
+    @BeforeAll
+    static void load() throws IOException
+    {
+        gapped = TestDatasets.loadGapped(TestDatasets.CLUSTAL_FILES[0]);
+        ungapped = gapped.removeGaps();
+        clustalScore = AlignmentScorer.scoreAlignment(gapped.values());
+        int w = gapped.widthOfWidestSequence();
+        widths = List.of(w+2, w, w+3, w+1);
+    }
+
+
+    @Test
+    void stopsAfterFirstWidthReachingTarget()
+    {
+        ConsensusWidthModel full = new ConsensusWidthPanel().getModel();
+        Chromosome fittest = sweep(full, Integer.MAX_VALUE);
+        assertEquals(new TreeSet<Integer>(widths), full.keySet());
+        assertEquals(Collections.max(full.values()), fittest.score);
+
+        for (int i=0; i<widths.size(); i++)
+        {
+            int target = full.get(widths.get(i));
+            int nRun = 1;
+            while (full.get(widths.get(nRun-1)) < target)
+                nRun++;
+            ConsensusWidthModel partial = new ConsensusWidthPanel().getModel();
+            Chromosome best = sweep(partial, target);
+            assertEquals(new TreeSet<Integer>(widths.subList(0, nRun)), partial.keySet(), "target " + target);
+            for (int width: partial.keySet())
+                assertEquals(full.get(width), partial.get(width), "width " + width);
+            assertTrue(best.score >= target);
+        }
+    }
+
+
+    private static Chromosome sweep(ConsensusWidthModel model, int targetScore)
+    {
+        ConsensusWidthSweep sweep = new ConsensusWidthSweep(ungapped, gapped, clustalScore, model);
+        sweep.setNTribes(N_TRIBES);
+        sweep.setNGenerationsTribePhase(N_GENS_TRIBE);
+        sweep.setNGenerationsCombinedPhase(N_GENS_COMBINED);
+        sweep.setCpuBudget(1);
+        sweep.setMaxConcurrentWidths(1);
+        sweep.setTargetScore(targetScore);
+        sweep.setRandom(new SplittableRandom(SEED));
+        return sweep.sweep(widths);
+    }
+}
@@ -0,0 +1,167 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// Full scoring of the decoded alignment, AlignmentScorer.scoreGapping() and
+// AlignmentScorer.rescoreGapping() must agree exactly, score vectors included,
+// for every kid the G.A. operators can make. Parents are drawn from a small
+// evolving pool, so kids range from near-copies (the incremental path) to
+// strangers (the full-rescore fallback).
+//
+
+
+class DeltaEvaluationTest
+{
+    private final static int        POOL_SIZE       =  20;
+    private final static int        N_ROUNDS        = 150;
+    private final static long       SEED            = 20_240_601L;
+
+
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void crossoverKidsScoreTheSameEveryWay(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        int clustalWidth = gapped.widthOfWidestSequence();
+        for (int width: new int[] { clustalWidth, clustalWidth+3 })
+        {
+            SplittableRandom random = new SplittableRandom(SEED + width);
+            Chromosome[] pool = new Chromosome[POOL_SIZE];
+            for (int i=0; i<POOL_SIZE; i++)
+            {
+                pool[i] = TestDatasets.randomChromosome(ungapped, width, random);
+                pool[i].evaluate(ungapped, width);
+                assertEquals(fullScore(pool[i], ungapped, width), pool[i].score);
+            }
+
+            for (int round=0; round<N_ROUNDS; round++)
+            {
+                Chromosome ma = pool[random.nextInt(POOL_SIZE)];
+                Chromosome pa = pool[random.nextInt(POOL_SIZE)];
+                if (ma == pa)
+                    continue;
+                Chromosome kid0 = new Chromosome();
+                Chromosome kid1 = new Chromosome();
+                Chromosome.crossover(ma, pa, 0.05f, random, kid0, kid1);
+                kid0.mutate(0.01f, random);
+                kid1.mutate(0.01f, random);
+                checkKid(kid0, ma, ungapped, width);
+                checkKid(kid1, pa, ungapped, width);
+
+                // Kid 0 replaces a pool member, so parents grow alike.
+                pool[random.nextInt(POOL_SIZE)] = kid0;
+            }
+        }
+    }
+
+
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void mutantsScoreTheSameEveryWay(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        int width = gapped.widthOfWidestSequence() + 2;
+        SplittableRandom random = new SplittableRandom(SEED);
+        Chromosome parent = TestDatasets.randomChromosome(ungapped, width, random);
+        for (int round=0; round<N_ROUNDS; round++)
+        {
+            Chromosome mutant = new Chromosome(parent);
+            if (round % 2 == 0)
+                mutant.mutate(0.005f, random);
+            else
+                mutant.setGapLocation(random.nextInt(mutant.length()), random.nextInt(width));
+            checkKid(mutant, parent, ungapped, width);
+            parent = mutant;
+        }
+    }
+
+
+    // Genes scored before are a cache hit, even for a kid that could be
+    // rescored from its parent. A kid that copies its parent keeps the
+    // parent's vectors, so its own kids are rescored from them.
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void scoredGenesAreLookedUpFirst(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        int width = gapped.widthOfWidestSequence() + 2;
+        SplittableRandom random = new SplittableRandom(SEED);
+        FitnessCache.clear();
+        Chromosome ma = TestDatasets.randomChromosome(ungapped, width, random);
+        Chromosome pa = TestDatasets.randomChromosome(ungapped, width, random);
+        ma.evaluate(ungapped, width);
+        pa.evaluate(ungapped, width);
+
+        // No switches => kid 0 copies ma, and kid 1 copies pa.
+        Chromosome kid0 = new Chromosome();
+        Chromosome kid1 = new Chromosome();
+        Chromosome.crossover(ma, pa, 0f, random, kid0, kid1);
+        long hits = FitnessCache.getHits();
+        kid0.evaluate(ungapped, width);
+        kid1.evaluate(ungapped, width);
+        assertEquals(hits+2, FitnessCache.getHits());
+        assertEquals(ma.score, kid0.score);
+        assertEquals(pa.score, kid1.score);
+
+        for (int round=0; round<N_ROUNDS; round++)
+        {
+            Chromosome grandkid0 = new Chromosome();
+            Chromosome grandkid1 = new Chromosome();
+            Chromosome.crossover(kid0, kid1, 0.05f, random, grandkid0, grandkid1);
+            grandkid0.mutate(0.01f, random);
+            grandkid0.evaluate(ungapped, width);
+            assertEquals(fullScore(grandkid0, ungapped, width), grandkid0.score);
+        }
+    }
+
+
+    // Kid's score by every path. rescoreGapping() starts from base's vectors.
+    private static void checkKid(Chromosome kid, Chromosome base,
+                                 UngappedSequenceDataset ungapped, int width)
+    {
+        assertTrue(kid.isCanonical());
+        CompactSequenceDataset seqs = ungapped.compact();
+        int nRows = seqs.nRows;
+        int full = fullScore(kid, ungapped, width);
+
+        int[] columnScores = new int[width];
+        int[] rowPenalties = new int[nRows];
+        int gapping = AlignmentScorer.scoreGapping(seqs, kid.gapLocations, kid.geneBase, kid.gapStarts,
+                                                   width, columnScores, rowPenalties);
+        assertEquals(full, gapping, "scoreGapping");
+        assertEquals(full, AlignmentScorer.scoreGapping(seqs, kid.gapLocations, kid.geneBase,
+                                                        kid.gapStarts, width));
+
+        int[] deltaColumnScores = new int[width];
+        int[] deltaRowPenalties = new int[nRows];
+        int baseScore = AlignmentScorer.scoreGapping(seqs, base.gapLocations, base.geneBase, base.gapStarts,
+                                                     width, deltaColumnScores, deltaRowPenalties);
+        int rescored = AlignmentScorer.rescoreGapping(seqs, kid.gapLocations, kid.geneBase, kid.gapStarts,
+                                                      width, base.gapLocations, base.geneBase, baseScore,
+                                                      deltaColumnScores, deltaRowPenalties);
+        assertEquals(full, rescored, "rescoreGapping");
+        assertArrayEquals(columnScores, deltaColumnScores, "column scores");
+        assertArrayEquals(rowPenalties, deltaRowPenalties, "row penalties");
+
+        kid.evaluate(ungapped, width);
+        assertEquals(full, kid.score, "evaluate");
+    }
+
+
+    // From the decoded strings, so no gapping code is involved.
+    private static int fullScore(Chromosome chromo, UngappedSequenceDataset ungapped, int width)
+    {
+        return AlignmentScorer.scoreAlignment(chromo.toMSAStrings(ungapped, width));
+    }
+}
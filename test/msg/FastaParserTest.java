@@ -0,0 +1,94 @@
+package msg;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// Each FASTA file under data/ holds the sequences of the Clustal alignment
+// next to it, so both loaders must produce the same ungapped dataset.
+//
+
+
+class FastaParserTest
+{
+    private final static String[]   PAIRED_FILES    =
+    {
+        "Balibase_bb3_release/BB11001",
+        "GagPol/gag_04"
+    };
+
+
+    @Test
+    void fastaMatchesClustal() throws IOException
+    {
+        for (String path: PAIRED_FILES)
+        {
+            File fastaFile = new File(TestDatasets.DATA_DIRF, path + ".fasta");
+            assertTrue(FastaParser.isFastaFile(fastaFile));
+            UngappedSequenceDataset fasta = FastaParser.parseFile(fastaFile);
+            UngappedSequenceDataset clustal = TestDatasets.loadGapped(path + ".clw").removeGaps();
+            assertEquals(clustal, fasta, path);
+            assertArrayEquals(clustal.compact().residues, fasta.compact().residues, path);
+            assertArrayEquals(clustal.compact().offsets, fasta.compact().offsets, path);
+            assertEquals(fastaFile.getName().replace(".fasta", ""), fasta.getName());
+        }
+    }
+
+
+    @Test
+    void recognizesFastaNames()
+    {
+        for (String name: new String[] { "x.fasta", "x.fa", "x.fasta.gz", "x.fa.gz" })
+        {
+            assertTrue(FastaParser.isFastaFile(new File(name)), name);
+            assertEquals("x", FastaParser.datasetName(new File(name)), name);
+        }
+        for (String name: new String[] { "x.clw", "x.gz", "fasta", "x.fasta.txt" })
+            assertFalse(FastaParser.isFastaFile(new File(name)), name);
+    }
+
+
+    // Bytes from 0x80 up, e.g. UTF-8, don't end a name.
+    @Test
+    void namesKeepNonAsciiBytes(@TempDir File dirf) throws IOException
+    {
+        File file = new File(dirf, "accents.fasta");
+        byte[] contents = ">s\u00e9q_1 first\nACDEF\n>\u00fc2\tsecond\nGHIK\n".getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            out.write(contents);
+        }
+        UngappedSequenceDataset dataset = FastaParser.parseFile(file);
+        byte[] name1 = "s\u00e9q_1".getBytes(StandardCharsets.UTF_8);
+        byte[] name2 = "\u00fc2".getBytes(StandardCharsets.UTF_8);
+        assertEquals(List.of(new String(name1, StandardCharsets.ISO_8859_1),
+                             new String(name2, StandardCharsets.ISO_8859_1)),
+                     new ArrayList<String>(dataset.keySet()));
+        assertEquals(List.of("ACDEF", "GHIK"), new ArrayList<String>(dataset.values()));
+    }
+
+
+    // The baseline for FASTA inputs, which have no Clustal alignment.
+    @Test
+    void paddingIsAGapping() throws IOException
+    {
+        UngappedSequenceDataset ungapped =
+            FastaParser.parseFile(new File(TestDatasets.DATA_DIRF, PAIRED_FILES[0] + ".fasta"));
+        SequenceDataset padded = ungapped.padToWidestSequence();
+        assertTrue(padded.isUniformWidth());
+        assertEquals(ungapped.widthOfWidestSequence(), padded.widthOfWidestSequence());
+        assertEquals(ungapped, padded.removeGaps());
+        char[][] alignment = new char[padded.size()][];
+        int n = 0;
+        for (String seq: padded.values())
+            alignment[n++] = seq.toCharArray();
+        assertTrue(AlignmentScorer.verify(alignment, ungapped, AlignmentScorer.scoreAlignment(alignment)));
+    }
+}
@@ -0,0 +1,103 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// A seeded G.A. run must give the same result whether its tribes & widths
+// run on 1 thread or several. Runs are short; what matters is that every
+// random draw comes from a stream that doesn't depend on scheduling.
+//
+
+
+class ReproducibilityTest
+{
+    private final static int        N_TRIBES        =  4;
+    private final static int        N_GENS_TRIBE    = 60;
+    private final static int        N_GENS_COMBINED = 40;
+    private final static long       SEED            = 20_240_603L;
+
+    private static SequenceDataset          gapped;
+    private static UngappedSequenceDataset  ungapped;
+    private static int                      clustalScore;
+
+
+    @BeforeAll
+    static void load() throws IOException
+    {
+        gapped = TestDatasets.loadGapped(TestDatasets.CLUSTAL_FILES[0]);
+        ungapped = gapped.removeGaps();
+        clustalScore = AlignmentScorer.scoreAlignment(gapped.values());
+    }
+
+
+    @Test
+    void multiTribeRunIsThreadCountIndependent()
+    {
+        StoppingRules stagnation = new StoppingRules(10, 0f, 0, 0);
+        for (StoppingRules rules: new StoppingRules[] { StoppingRules.NONE, stagnation })
+        {
+            String serial = runMultiTribe(1, rules);
+            assertEquals(serial, runMultiTribe(1, rules), "repeat, " + rules);
+            assertEquals(serial, runMultiTribe(4, rules), "4 threads, " + rules);
+        }
+    }
+
+
+    @Test
+    void sweepIsThreadCountIndependent()
+    {
+        for (boolean warmStart: new boolean[] { false, true })
+        {
+            String serial = runSweep(1, warmStart);
+            assertEquals(serial, runSweep(4, warmStart), "4 threads, warm start " + warmStart);
+        }
+    }
+
+
+    // The fittest chromosome & the top distinct ones.
+    private static String runMultiTribe(int nThreads, StoppingRules rules)
+    {
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try
+        {
+            MultiTribePanel multiTribe = new MultiTribePanel(null, N_TRIBES);
+            multiTribe.setPool(pool);
+            multiTribe.setNGenerationsTribePhase(N_GENS_TRIBE);
+            multiTribe.setNGenerationsCombinedPhase(N_GENS_COMBINED);
+            multiTribe.setStoppingRules(rules);
+            multiTribe.reset(ungapped, gapped, clustalScore, gapped.widthOfWidestSequence() + 1,
+                             new SplittableRandom(SEED));
+            Chromosome fittest = multiTribe.computeGAScore();
+            return fittest.gapsToString() + " " + fittest.score + " " + multiTribe.getTopChromosomes();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+
+    // The fittest chromosome & every width's score.
+    private static String runSweep(int nThreads, boolean warmStart)
+    {
+        int clustalWidth = gapped.widthOfWidestSequence();
+        ConsensusWidthModel model = new ConsensusWidthPanel().getModel();
+        ConsensusWidthSweep sweep = new ConsensusWidthSweep(ungapped, gapped, clustalScore, model);
+        sweep.setNTribes(N_TRIBES);
+        sweep.setNGenerationsTribePhase(N_GENS_TRIBE);
+        sweep.setNGenerationsCombinedPhase(N_GENS_COMBINED);
+        sweep.setCpuBudget(nThreads);
+        sweep.setMaxConcurrentWidths(nThreads);
+        sweep.setWarmStart(warmStart);
+        sweep.setRandom(new SplittableRandom(SEED));
+        Chromosome fittest = sweep.sweep(List.of(clustalWidth, clustalWidth+1, clustalWidth+2, clustalWidth+3));
+        return fittest.consensusWidth() + " " + fittest.gapsToString() + " " + fittest.score + " " + model;
+    }
+}
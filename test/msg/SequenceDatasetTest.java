@@ -0,0 +1,54 @@
+package msg;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// A gapped dataset may hold anything a Clustal file does, so its statistics
+// must not depend on the residues being amino acids.
+//
+
+
+class SequenceDatasetTest
+{
+    @Test
+    void statsWorkOnAnyChars()
+    {
+        SequenceDataset dataset = new SequenceDataset("test");
+        dataset.put("a", "ab-*");
+        dataset.put("b", "1--é");
+        assertEquals(4, dataset.widthOfWidestSequence());
+        assertEquals(3, dataset.countGaps());
+        assertTrue(dataset.isUniformWidth());
+
+        dataset.put("c", "x");
+        assertFalse(dataset.isUniformWidth());
+        assertEquals(4, dataset.widthOfWidestSequence());
+    }
+
+
+    @Test
+    void statsOfEmptyDataset()
+    {
+        SequenceDataset dataset = new SequenceDataset("test");
+        assertEquals(-1, dataset.widthOfWidestSequence());
+        assertEquals(0, dataset.countGaps());
+        assertTrue(dataset.isUniformWidth());
+    }
+
+
+    @Test
+    void removeGapsKeepsNamesAndOrder()
+    {
+        SequenceDataset dataset = new SequenceDataset("test");
+        dataset.put("b", "-AC-D");
+        dataset.put("a", "EF--");
+        UngappedSequenceDataset ungapped = dataset.removeGaps();
+        assertEquals("test", ungapped.getName());
+        assertArrayEquals(new String[] { "a", "b" }, ungapped.compact().names);
+        assertEquals("EF", ungapped.get("a"));
+        assertEquals("ACD", ungapped.get("b"));
+    }
+}
@@ -0,0 +1,93 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// Narrowing in both of Slenderizer's modes. Tests run with -ea, so every
+// finalist's estimate is also checked against its exact pair score (see
+// Candidate.scoreExactly()); candidates are ranked by that estimate.
+//
+
+
+class SlenderizerTest
+{
+    private final static long       SEED            = 20_240_604L;
+
+
+    // Each row loses k gaps, so residues are kept & shifted as needed.
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void keepsResidues(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        int width = gapped.widthOfWidestSequence();
+        for (int k=1; k<=3; k++)
+        {
+            int nColsAfter = width - k;
+            if (nColsAfter < ungapped.widthOfWidestSequence())
+                break;
+            int nGapsAfter = gapped.size()*nColsAfter - ungapped.nCharsOverall();
+            char[][] alignment = slenderize(gapped, nColsAfter, nGapsAfter);
+            assertTrue(AlignmentScorer.verify(alignment, ungapped, Integer.MIN_VALUE), path + ", k=" + k);
+        }
+    }
+
+
+    // Any other gap total: whole columns are deleted, residues & all.
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void deletesColumns(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        int width = gapped.widthOfWidestSequence();
+        int[] gapsByCol = new int[width];
+        for (String seq: gapped.values())
+            for (int col=0; col<width; col++)
+                if (seq.charAt(col) == '-')
+                    gapsByCol[col]++;
+        int[] sorted = gapsByCol.clone();
+        Arrays.sort(sorted);
+
+        // Removing the k least gappy columns that have gaps is feasible, and
+        // drops residues.
+        int first = 0;
+        while (sorted[first] == 0)
+            first++;
+        for (int k=1; k<=3; k++)
+        {
+            int nGapsRemoved = 0;
+            for (int i=first; i<first+k; i++)
+                nGapsRemoved += sorted[i];
+            assertTrue(nGapsRemoved < gapped.size()*k);
+            int nGapsAfter = gapped.countGaps() - nGapsRemoved;
+            char[][] alignment = slenderize(gapped, width-k, nGapsAfter);
+            int nGaps = 0;
+            for (char[] row: alignment)
+                for (char ch: row)
+                    if (ch == '-')
+                        nGaps++;
+            assertEquals(nGapsAfter, nGaps, path + ", k=" + k);
+        }
+    }
+
+
+    private static char[][] slenderize(SequenceDataset gapped, int nColsAfter, int nGapsAfter)
+    {
+        Slenderizer slenderizer = new Slenderizer(gapped.values(), new SplittableRandom(SEED));
+        assertNotNull(slenderizer.slenderize(nColsAfter, nGapsAfter));
+        char[][] alignment = slenderizer.getAlignment();
+        assertEquals(gapped.size(), alignment.length);
+        for (char[] row: alignment)
+            assertEquals(nColsAfter, row.length);
+        assertEquals(AlignmentScorer.scoreAlignment(alignment), slenderizer.getWinnerScore());
+        return alignment;
+    }
+}
@@ -0,0 +1,114 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// Population.hasStagnated() must measure each stagnation window from real
+// scores, starting with the best score of the initial population.
+//
+
+
+class StoppingRulesTest
+{
+    private final static int        N_CHROMOSOMES   = 40;
+    private final static int        WINDOW          =  8;
+    private final static long       SEED            = 20_240_605L;
+
+    private static UngappedSequenceDataset  ungapped;
+    private static int                      width;
+
+
+    @BeforeAll
+    static void load() throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(TestDatasets.CLUSTAL_FILES[0]);
+        ungapped = gapped.removeGaps();
+        width = gapped.widthOfWidestSequence() + 2;
+    }
+
+
+    // Identical rows at their own width have 1 alignment, whose score can't
+    // rise, so the first window must end on time.
+    @Test
+    void firstWindowIsFullLength()
+    {
+        UngappedSequenceDataset same = new UngappedSequenceDataset("same");
+        for (String name: new String[] { "a", "b", "c" })
+            same.put(name, "ACDEFGHIK");
+        Population pop = new Population(N_CHROMOSOMES, N_CHROMOSOMES/2, same, same.widthOfWidestSequence(), 100,
+                                        new SplittableRandom(SEED));
+        pop.setStoppingRules(new StoppingRules(WINDOW, 0f, 0, 0));
+        int score = pop.getFittest().score;
+        for (int gen=1; gen<=WINDOW; gen++)
+        {
+            assertFalse(pop.hasStagnated(), "generation " + (gen-1));
+            pop.step1Generation();
+            assertEquals(score, pop.getFittest().score);
+        }
+        assertTrue(pop.hasStagnated());
+        assertEquals(WINDOW, pop.getNGenerations());
+        assertEquals(WINDOW * pop.evaluationsPerGeneration(), pop.getNEvaluations());
+    }
+
+
+    // Stagnated iff no rise of at least the threshold in the last window.
+    @ParameterizedTest
+    @ValueSource(floats = { 0f, 0.01f, 0.5f })
+    void windowRestartsOnProgress(float minRelativeImprovement)
+    {
+        StoppingRules rules = new StoppingRules(WINDOW, minRelativeImprovement, 0, 0);
+        Population pop = population(rules);
+        int progressScore = pop.getFittest().score;
+        int progressGeneration = 0;
+        for (int gen=1; gen<=100; gen++)
+        {
+            pop.step1Generation();
+            int best = pop.getFittest().score;
+            int needed = progressScore + Math.max(1, (int)Math.ceil(minRelativeImprovement * Math.abs(progressScore)));
+            if (best >= needed)
+            {
+                progressScore = best;
+                progressGeneration = gen;
+            }
+            assertEquals(gen - progressGeneration >= WINDOW, pop.hasStagnated(), "generation " + gen);
+        }
+    }
+
+
+    @Test
+    void noneNeverStagnates()
+    {
+        Population pop = population(StoppingRules.NONE);
+        for (int gen=1; gen<=3*WINDOW; gen++)
+            pop.step1Generation();
+        assertFalse(pop.hasStagnated());
+    }
+
+
+    @Test
+    void rejectsNegativeRules()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new StoppingRules(-1, 0f, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StoppingRules(0, -0.5f, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StoppingRules(0, Float.NaN, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StoppingRules(0, 0f, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StoppingRules(0, 0f, 0, -1));
+    }
+
+
+    private static Population population(StoppingRules rules)
+    {
+        Population pop = new Population(N_CHROMOSOMES, N_CHROMOSOMES/2, ungapped, width, 100,
+                                        new SplittableRandom(SEED));
+        pop.setStoppingRules(rules);
+        return pop;
+    }
+}
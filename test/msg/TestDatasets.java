@@ -0,0 +1,45 @@
+package msg;
+
+import java.io.*;
+import java.util.*;
+
+
+//
+// Datasets & random chromosomes shared by the tests. Paths are relative to the
+// directory that contains data/, which is where Maven runs the tests.
+//
+
+
+class TestDatasets
+{
+    final static File               DATA_DIRF       = new File("data");
+    final static String[]           CLUSTAL_FILES   =
+    {
+        "Balibase_bb3_release/BB11001.clw",
+        "PDGH/first_7.clw",
+        "Random/Uniform.clw"
+    };
+
+
+    // For @MethodSource.
+    static String[] clustalFiles()
+    {
+        return CLUSTAL_FILES;
+    }
+
+
+    static SequenceDataset loadGapped(String path) throws IOException
+    {
+        return ClustalParser.parseFileToGapped(new File(DATA_DIRF, path));
+    }
+
+
+    // Canonical, with random gaps.
+    static Chromosome randomChromosome(UngappedSequenceDataset ungapped, int width,
+                                       SplittableRandom random)
+    {
+        Chromosome chromo = new Chromosome(ungapped, width);
+        chromo.randomize(random);
+        return chromo;
+    }
+}
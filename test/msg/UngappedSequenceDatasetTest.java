@@ -0,0 +1,115 @@
+package msg;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// Every way of changing an UngappedSequenceDataset must check residues and
+// drop the encoded sequences, hashes & content id cached for the old contents.
+//
+
+
+class UngappedSequenceDatasetTest
+{
+    private static UngappedSequenceDataset dataset()
+    {
+        UngappedSequenceDataset ret = new UngappedSequenceDataset("test");
+        ret.put("a", "ACDEF");
+        ret.put("b", "GHIK");
+        ret.putEncoded("c", "LMN", ResidueAlignment.encodeUngapped("LMN"));
+        return ret;
+    }
+
+
+    @Test
+    void removeDropsCaches()
+    {
+        UngappedSequenceDataset dataset = dataset();
+        long id = cacheEverything(dataset);
+        dataset.remove("b");
+        assertNotEquals(id, dataset.getContentId());
+        assertConsistent(dataset, "ACDEF", "LMN");
+    }
+
+
+    @Test
+    void clearDropsCaches()
+    {
+        UngappedSequenceDataset dataset = dataset();
+        long id = cacheEverything(dataset);
+        dataset.clear();
+        assertNotEquals(id, dataset.getContentId());
+        assertConsistent(dataset);
+        dataset.put("c", "PQ");
+        assertConsistent(dataset, "PQ");
+    }
+
+
+    @Test
+    void putAllDropsCaches()
+    {
+        UngappedSequenceDataset dataset = dataset();
+        long id = cacheEverything(dataset);
+        dataset.putAll(Map.of("c", "RST", "d", "VWY"));
+        assertNotEquals(id, dataset.getContentId());
+        assertConsistent(dataset, "ACDEF", "GHIK", "RST", "VWY");
+    }
+
+
+    // Into an empty map, TreeMap.putAll() of a sorted map skips put().
+    @Test
+    void putAllChecksResidues()
+    {
+        TreeMap<String, String> bad = new TreeMap<String, String>(Map.of("a", "ACD", "b", "AC-D"));
+        UngappedSequenceDataset empty = new UngappedSequenceDataset("test");
+        assertThrows(IllegalArgumentException.class, () -> empty.putAll(bad));
+        assertTrue(empty.isEmpty());
+
+        UngappedSequenceDataset dataset = dataset();
+        assertThrows(IllegalArgumentException.class, () -> dataset.putAll(Map.of("d", "A1C")));
+        assertConsistent(dataset, "ACDEF", "GHIK", "LMN");
+
+        empty.putAll(new TreeMap<String, String>(Map.of("a", "ACD", "b", "EF")));
+        assertConsistent(empty, "ACD", "EF");
+    }
+
+
+    private static long cacheEverything(UngappedSequenceDataset dataset)
+    {
+        dataset.compact();
+        dataset.getSequenceHashes();
+        dataset.getSequenceLengths();
+        return dataset.getContentId();
+    }
+
+
+    // Every cached view agrees with seqs, in name order.
+    private static void assertConsistent(UngappedSequenceDataset dataset, String... seqs)
+    {
+        assertEquals(List.of(seqs), new ArrayList<String>(dataset.values()));
+        CompactSequenceDataset compact = dataset.compact();
+        int[] lengths = dataset.getSequenceLengths();
+        int[] hashes = dataset.getSequenceHashes();
+        assertEquals(seqs.length, compact.nRows);
+        assertArrayEquals(dataset.keySet().toArray(new String[0]), compact.names);
+        assertEquals(seqs.length+1, compact.offsets.length);
+        int nChars = 0;
+        for (int i=0; i<seqs.length; i++)
+        {
+            byte[] expected = ResidueAlignment.encodeUngapped(seqs[i]);
+            assertArrayEquals(expected, Arrays.copyOfRange(compact.residues, compact.offsets[i],
+                                                           compact.offsets[i+1]));
+            assertEquals(seqs[i].length(), lengths[i]);
+            int hash = 0;
+            for (byte code: expected)
+                hash = 31*hash + code;
+            assertEquals(hash, hashes[i]);
+            nChars += seqs[i].length();
+        }
+        assertEquals(nChars, dataset.nCharsOverall());
+    }
+}
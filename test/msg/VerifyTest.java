@@ -0,0 +1,111 @@
+package msg;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+//
+// AlignmentScorer.verify() stops scoring once the outcome is decided, so it
+// must answer exactly as comparing the full score to the threshold would.
+//
+
+
+class VerifyTest
+{
+    private final static int        N_ALIGNMENTS    = 40;
+    private final static long       SEED            = 20_240_602L;
+
+
+    @ParameterizedTest
+    @MethodSource("msg.TestDatasets#clustalFiles")
+    void verifyMatchesFullScore(String path) throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(path);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i=0; i<N_ALIGNMENTS; i++)
+        {
+            // Wide alignments have gappy columns, whose bounds are tight
+            // enough to decide the outcome early.
+            int clustalWidth = gapped.widthOfWidestSequence();
+            int width = (i % 2 == 0)  ?  clustalWidth + random.nextInt(6)  :  clustalWidth * (2 + i%3);
+            Chromosome chromo = TestDatasets.randomChromosome(ungapped, width, random);
+            char[][] alignment = chromo.toCharArrays(ungapped, width);
+            int score = AlignmentScorer.scoreAlignment(alignment);
+            for (int threshold: new int[] { score - 1000, score - 1, score, score + 1, score + 1000 })
+                assertEquals(score >= threshold, AlignmentScorer.verify(alignment, ungapped, threshold),
+                             "threshold " + threshold + ", score " + score);
+        }
+    }
+
+
+    @Test
+    void rejectsAlignmentsThatArentGappings() throws IOException
+    {
+        SequenceDataset gapped = TestDatasets.loadGapped(TestDatasets.CLUSTAL_FILES[0]);
+        UngappedSequenceDataset ungapped = gapped.removeGaps();
+        char[][] alignment = toCharArrays(gapped);
+        int score = AlignmentScorer.scoreAlignment(alignment);
+        assertTrue(AlignmentScorer.verify(alignment, ungapped, score));
+
+        // Swap 2 different residues within a row.
+        char[] row = alignment[0];
+        int i = firstResidue(row, 0);
+        int j = i + 1;
+        while (row[j] == '-'  ||  row[j] == row[i])
+            j++;
+        char tmp = row[i];
+        row[i] = row[j];
+        row[j] = tmp;
+        assertFalse(AlignmentScorer.verify(alignment, ungapped, Integer.MIN_VALUE));
+
+        // Drop a row.
+        assertFalse(AlignmentScorer.verify(Arrays.copyOf(toCharArrays(gapped), alignment.length-1),
+                                           ungapped, Integer.MIN_VALUE));
+    }
+
+
+    // The serve protocol takes the alignment, then the threshold, as the CLI does.
+    @Test
+    void serveVerifiesAlignmentThenThreshold() throws Exception
+    {
+        MSG.loadDataset();
+        int width = MSG.clustalGappedDataset.widthOfWidestSequence() + 1;
+        Chromosome chromo = TestDatasets.randomChromosome(MSG.ungappedDataset, width,
+                                                          new SplittableRandom(SEED));
+        ArrayList<String> alignment = chromo.toMSAStrings(MSG.ungappedDataset, width);
+        int score = AlignmentScorer.scoreAlignment(alignment);
+        String requests = "verify " + alignment + " " + score + "\n" +
+                          "verify " + alignment + " " + (score+1) + "\n";
+        ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        MSG.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)),
+                  new PrintStream(replies, true, StandardCharsets.UTF_8));
+        assertEquals("true\nfalse\n", replies.toString(StandardCharsets.UTF_8).replace("\r", ""));
+        assertTrue(MSG.verify(alignment.toString(), score));
+    }
+
+
+    private static char[][] toCharArrays(SequenceDataset gapped)
+    {
+        char[][] ret = new char[gapped.size()][];
+        int n = 0;
+        for (String seq: gapped.values())
+            ret[n++] = seq.toCharArray();
+        return ret;
+    }
+
+
+    private static int firstResidue(char[] row, int from)
+    {
+        while (row[from] == '-')
+            from++;
+        return from;
+    }
+}